@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** Performs a timing test of the line diff against the naive O(N * M) algorithm.
+ *  @author ASmellyCat
+ *  Usage, from proj2/benchmarks:
+ *<pre>
+ *  java -cp target/benchmarks.jar gitlet.DiffSpeedTest [lines] [percent of lines changed]
+ *</pre>
+ *  Both algorithms must agree on the number of changed lines, since both
+ *  find a shortest edit script. The naive one is skipped on files too large
+ *  for its N * M table.
+ */
+public class DiffSpeedTest {
+    /** Largest N * M the naive algorithm is run on. */
+    private static final long NAIVE_LIMIT = 25_000_000L;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[]{Integer.parseInt(args[0])}
+                : new int[]{1_000, 5_000, 10_000, 100_000};
+        int percent = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        Random random = new Random(61);
+        for (int n : sizes) {
+            int[] a = randomLines(n, random);
+            int[] b = edit(a, percent, random);
+            long start = System.nanoTime();
+            boolean[][] changed = Diff.changes(a, b);
+            double myers = (System.nanoTime() - start) / 1e6;
+            int edits = count(changed[0]) + count(changed[1]);
+            String naive = "skipped";
+            if ((long) a.length * b.length <= NAIVE_LIMIT) {
+                start = System.nanoTime();
+                int naiveEdits = a.length + b.length - 2 * naiveLCS(a, b);
+                naive = String.format("%.1f ms", (System.nanoTime() - start) / 1e6);
+                if (naiveEdits != edits) {
+                    throw new AssertionError("Diff found " + edits + " edits, naive found "
+                            + naiveEdits);
+                }
+            }
+            System.out.printf("%d lines, %d%% changed: %d edits, diff %.1f ms, naive %s%n",
+                    n, percent, edits, myers, naive);
+        }
+    }
+
+    /** @return int array of N line ids, with repeats, like braces and blank lines. */
+    private static int[] randomLines(int n, Random random) {
+        int[] lines = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            lines[i] = random.nextInt(4) == 0 ? random.nextInt(10) : random.nextInt(n) + 10;
+        }
+        return lines;
+    }
+
+    /** @return a copy of LINES with about PERCENT percent of lines removed, changed or added. */
+    private static int[] edit(int[] lines, int percent, Random random) {
+        int[] edited = new int[lines.length * 2];
+        int n = 0;
+        for (int line : lines) {
+            int r = random.nextInt(300);
+            if (r < percent) {
+                continue;
+            } else if (r < 2 * percent) {
+                edited[n++] = lines.length + 10 + random.nextInt(lines.length);
+            } else if (r < 3 * percent) {
+                edited[n++] = line;
+                edited[n++] = random.nextInt(lines.length) + 10;
+            } else {
+                edited[n++] = line;
+            }
+        }
+        return Arrays.copyOf(edited, n);
+    }
+
+    /** @return int of the length of the longest common subsequence, by dynamic programming. */
+    private static int naiveLCS(int[] a, int[] b) {
+        int[][] lcs = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i -= 1) {
+            for (int j = b.length - 1; j >= 0; j -= 1) {
+                lcs[i][j] = a[i] == b[j] ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        return lcs[0][0];
+    }
+
+    private static int count(boolean[] marks) {
+        int n = 0;
+        for (boolean mark : marks) {
+            n += mark ? 1 : 0;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/** JMH benchmarks of gitlet commands on synthetic repositories.
+ *  @author ASmellyCat
+ *  Usage, from proj2/benchmarks:
+ *<pre>
+ *  mvn package
+ *  java -jar target/benchmarks.jar -rf json -rff gitlet-bench.json
+ *  java -jar target/benchmarks.jar status -p files=10000 -p commits=1000 -p topology=merges
+ *</pre>
+ *  Each fork generates its repository with SyntheticRepo, then points the
+ *  working directory of gitlet at it before any gitlet class is loaded, since
+ *  Repository fixes its directories when it is loaded. A fork serves one
+ *  benchmark and one set of parameters, so forks must not be turned off.
+ *
+ *  Commands run in this process, as they do in the daemon, so the numbers
+ *  leave out JVM start-up. Commands that change the repository get it ready
+ *  again before each call, outside the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GitletBenchmark {
+
+    /** A generated repository, the working directory of this fork. */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        /** Number of files in the working directory. */
+        @Param("1000")
+        public int files;
+        /** Size of each file in bytes. */
+        @Param("1024")
+        public int fileSize;
+        /** Number of commits in the history. */
+        @Param("200")
+        public int commits;
+        /** Shape of the history: linear or merges. */
+        @Param("linear")
+        public String topology;
+
+        /** Temporary directory holding every repository of this fork. */
+        File root;
+        /** The working directory of gitlet in this fork. */
+        File work;
+        /** The repository fetched from, for fetch only. */
+        File source;
+        /** Branch checked out next by the checkout benchmark. */
+        String nextBranch = "topic";
+
+        @Setup(Level.Trial)
+        public void generate(BenchmarkParams params) throws IOException {
+            root = Files.createTempDirectory("gitlet-bench").toFile();
+            work = new File(root, "work");
+            work.mkdir();
+            if (params.getBenchmark().endsWith(".fetch")) {
+                source = new File(root, "source");
+                source.mkdir();
+                SyntheticRepo.generate(source, files, fileSize, commits, topology);
+            } else {
+                SyntheticRepo.generate(work, files, fileSize, commits, topology);
+            }
+            System.setProperty("user.dir", work.getPath());
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            deleteDirectory(root.toPath());
+        }
+    }
+
+    /** The repository made ready for one call of a command that changes it. */
+    @State(Scope.Benchmark)
+    public static class Prepared {
+        /** Commit of master before merge was called. */
+        private String masterID;
+        /** Source of edits, so every call stages new contents. */
+        private SyntheticRepo editor;
+
+        @Setup(Level.Trial)
+        public void start(Repo repo, BenchmarkParams params) {
+            editor = new SyntheticRepo(repo.files, repo.fileSize);
+            if (params.getBenchmark().endsWith(".merge")) {
+                masterID = HelpMethod.getCurrentCommitID();
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void prepare(Repo repo, BenchmarkParams params) throws IOException {
+            String benchmark = params.getBenchmark();
+            if (benchmark.endsWith(".add")) {
+                editor.editSome(0, repo.files);
+            } else if (benchmark.endsWith(".commit")) {
+                Repository.add(editor.editSome(0, repo.files), false);
+            } else if (benchmark.endsWith(".merge")) {
+                Repository.reset(masterID);
+            } else if (benchmark.endsWith(".fetch")) {
+                deleteDirectory(Repository.GITLET_DIR.toPath());
+                StagingArea.refresh();
+                CommitGraph.refresh();
+                Pack.refresh();
+                Refs.refresh();
+                Repository.init();
+                Repository.addRemote("origin", "../" + repo.source.getName() + "/.gitlet");
+            }
+        }
+    }
+
+    /** add of 1% of the files, just rewritten. */
+    @Benchmark
+    public void add(Repo repo, Prepared prepared) {
+        Repository.add(List.of("."), false);
+    }
+
+    /** commit of 1% of the files, just staged. */
+    @Benchmark
+    public void commit(Repo repo, Prepared prepared) {
+        Repository.commit("benchmark");
+    }
+
+    /** status of a clean working directory. */
+    @Benchmark
+    public void status(Repo repo) {
+        Repository.status();
+    }
+
+    /** log of the whole first-parent history of master. */
+    @Benchmark
+    public void log(Repo repo) {
+        Repository.log();
+    }
+
+    /** checkout of master and topic in turn. */
+    @Benchmark
+    public void checkout(Repo repo) {
+        Repository.checkoutBranch(repo.nextBranch);
+        repo.nextBranch = repo.nextBranch.equals("topic") ? "master" : "topic";
+    }
+
+    /** merge of topic into master, which has no conflict. */
+    @Benchmark
+    public void merge(Repo repo, Prepared prepared) {
+        Repository.merge("topic");
+    }
+
+    /** fetch of the whole history of master from another repository into a new one. */
+    @Benchmark
+    public void fetch(Repo repo, Prepared prepared) {
+        Repository.fetch("origin", "master");
+    }
+
+    /** Delete a directory and everything in it. */
+    private static void deleteDirectory(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmark of hashing one working file, as add and status do.
+ *  @author ASmellyCat
+ *  Usage, from proj2/benchmarks:
+ *<pre>
+ *  java -jar target/benchmarks.jar HashBenchmark -p size=1024,1048576,268435456 -prof gc
+ *</pre>
+ *  The file stays in the page cache, so a large file measures SHA-1 itself,
+ *  and gc.alloc.rate.norm shows that no heap is allocated per byte hashed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+    /** Size of the file in bytes. */
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    /** The file hashed. */
+    private File file;
+
+    @Setup(Level.Trial)
+    public void write() throws IOException {
+        file = Files.createTempFile("gitlet-hash", ".bin").toFile();
+        byte[] contents = new byte[size];
+        new Random(61).nextBytes(contents);
+        Files.write(file.toPath(), contents);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        file.delete();
+    }
+
+    /** SHA-1 ID of the file, as a blob. */
+    @Benchmark
+    public String hash() {
+        return new Blob(file).shaID();
+    }
+}
@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Generates a gitlet repository with a given shape, for the benchmarks.
+ *  @author ASmellyCat
+ *  Usage: java gitlet.SyntheticRepo [files] [file size] [commits] [topology]
+ *  run in an empty directory, which becomes the working directory of the repository.
+ *
+ *  Files are spread over directories of 100 files, d0/f0.txt ... d9/f999.txt,
+ *  and every commit after the first rewrites 1% of them. Topologies:
+ *  1. linear: every commit is on master.
+ *  2. merges: every tenth commit merges a branch of five commits back into master.
+ *  In both, the repository ends with branch topic three commits ahead of the
+ *  split point on the upper half of the files, and master three commits ahead
+ *  on the lower half, so merging topic into master has no conflict.
+ *
+ *  Repository keeps the working directory of the process it was loaded in,
+ *  so a repository is generated by its own process, with the same code as Main.
+ */
+public class SyntheticRepo {
+    /** Files in each generated directory. */
+    static final int FILES_PER_DIR = 100;
+    /** Commits on each side of the split between master and topic. */
+    static final int DIVERGED_COMMITS = 3;
+
+    /** Names of the files, relative to the working directory. */
+    private final List<String> names;
+    /** Size of each file in bytes. */
+    private final int fileSize;
+    /** Source of file contents, seeded so every run builds the same files. */
+    private final Random random = new Random(61);
+    /** Number of commits made so far, including the initial one. */
+    private int made = 1;
+
+    SyntheticRepo(int files, int size) {
+        names = fileNames(files);
+        fileSize = size;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            throw new IllegalArgumentException(
+                    "Usage: java gitlet.SyntheticRepo [files] [file size] [commits] [topology]");
+        }
+        int commits = Integer.parseInt(args[2]);
+        String topology = args[3];
+        if (!topology.equals("linear") && !topology.equals("merges")) {
+            throw new IllegalArgumentException("Unknown topology: " + topology);
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        SyntheticRepo repo = new SyntheticRepo(Integer.parseInt(args[0]),
+                Integer.parseInt(args[1]));
+        Repository.init();
+        repo.edit(repo.names);
+        repo.commit("add files");
+        int history = Math.max(0, commits - 2 * DIVERGED_COMMITS);
+        while (repo.made < history) {
+            if (topology.equals("merges") && repo.made % 10 == 0) {
+                repo.mergeBranch("feature" + repo.made);
+            } else {
+                repo.commit(0, repo.names.size());
+            }
+        }
+        Repository.branch("topic");
+        Repository.checkoutBranch("topic");
+        for (int i = 0; i < DIVERGED_COMMITS; i += 1) {
+            repo.commit(repo.names.size() / 2, repo.names.size());
+        }
+        Repository.checkoutBranch("master");
+        for (int i = 0; i < DIVERGED_COMMITS; i += 1) {
+            repo.commit(0, repo.names.size() / 2);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Generate a repository in a directory by running this class in a new process.
+     * @param dir File of an empty directory.
+     * @param files int of number of files.
+     * @param size int of size of each file in bytes.
+     * @param commits int of number of commits.
+     * @param topology String of "linear" or "merges".
+     */
+    static void generate(File dir, int files, int size, int commits, String topology) {
+        String java = join(System.getProperty("java.home"), "bin", "java").getPath();
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                String.join(File.pathSeparator, classPath), SyntheticRepo.class.getName(),
+                String.valueOf(files), String.valueOf(size), String.valueOf(commits), topology);
+        builder.directory(dir).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        try {
+            int code = builder.start().waitFor();
+            if (code != 0) {
+                throw new IllegalStateException("Generating " + dir + " failed: " + code);
+            }
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalStateException("Cannot generate " + dir + ": " + excp.getMessage());
+        }
+    }
+
+    /** @return List of N file names, FILES_PER_DIR to a directory. */
+    static List<String> fileNames(int n) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            names.add("d" + i / FILES_PER_DIR + "/f" + i + ".txt");
+        }
+        return names;
+    }
+
+    /**
+     * Rewrite 1% of the files with index in [FROM, TO), at least one.
+     * @return List of the names of the rewritten files.
+     */
+    List<String> editSome(int from, int to) {
+        List<String> edited = new ArrayList<>();
+        int count = Math.max(1, (to - from) / 100);
+        for (int i = 0; i < count; i += 1) {
+            edited.add(names.get(from + random.nextInt(to - from)));
+        }
+        edit(edited);
+        return edited;
+    }
+
+    /** private HELP method. */
+
+    /** Write new contents into the files named by EDITED. */
+    private void edit(List<String> edited) {
+        for (String name : edited) {
+            File file = join(Repository.CWD, name);
+            file.getParentFile().mkdirs();
+            writeContents(file, (Object) contents());
+        }
+    }
+
+    /** @return byte array of lines of random words, fileSize bytes long. */
+    private byte[] contents() {
+        byte[] bytes = new byte[fileSize];
+        for (int i = 0; i < bytes.length; i += 1) {
+            int r = random.nextInt(28);
+            bytes[i] = (byte) (r < 26 ? 'a' + r : r == 26 ? ' ' : '\n');
+        }
+        return bytes;
+    }
+
+    /** Rewrite some of the files with index in [FROM, TO) and commit them. */
+    private void commit(int from, int to) {
+        editSome(from, to);
+        commit("commit " + made);
+    }
+
+    /** Add every file and commit. */
+    private void commit(String message) {
+        Repository.add(List.of("."), false);
+        Repository.commit(message);
+        made += 1;
+    }
+
+    /** Make five commits on a new branch and one on master, then merge the branch. */
+    private void mergeBranch(String branch) {
+        Repository.branch(branch);
+        Repository.checkoutBranch(branch);
+        for (int i = 0; i < 5; i += 1) {
+            commit(names.size() / 2, names.size());
+        }
+        Repository.checkoutBranch("master");
+        commit(0, names.size() / 2);
+        Repository.merge(branch);
+        made += 1;
+    }
+}
@@ -1,10 +1,25 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
-import java.util.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
-import static gitlet.Repository.CWD;
 import static gitlet.Repository.OBJECT_DIR;
 import static gitlet.Utils.*;
 import static gitlet.HelpMethod.*;
@@ -12,31 +27,93 @@ import static gitlet.HelpMethod.*;
 /**Represents a blob object.
  * @author ASmellyCat
  * a blob contains:
- * 1. sha1 id
- * 2. contents
- * 4. file path
+ * 1. sha1 id of "blob [length]\0" followed by its contents
+ * 2. file path
+ * 3. the working file or object directory its contents come from
+ *
+ * The contents are hashed while streaming the working file, stored as
+ * zlib-compressed raw bytes, and inflated straight into the working file on checkout.
+ *
+ * A new version of a tracked file that is no larger than MAX_DELTA_BYTES may
+ * instead be stored as a delta against the version it replaces:
+ * 'D' [base SHA-1 ID (20 bytes)] [chain depth (byte)] [length (int)] [zlib-compressed ops]
+ * A zlib stream never starts with 'D', so the first byte tells the two apart.
+ * Chains are at most MAX_DEPTH deltas long, and rebuilt contents are cached.
+ *
+ * The header keeps blob IDs apart from tree and commit IDs, which are stored
+ * differently: an empty file and an empty tree would otherwise share one ID.
  */
 
-public class Blob implements Serializable {
-    /** the content of a file that converted into a blob. */
-    private final String fileContents;
+public class Blob {
+    /** Bytes copied per transfer when inflating into a working file. */
+    private static final int TRANSFER_BYTES = 1 << 20;
+    /** First byte of a blob stored as a delta. */
+    private static final int DELTA_MARK = 'D';
+    /** Largest file, in bytes, that is stored as a delta. */
+    private static final int MAX_DELTA_BYTES = 8 << 20;
+    /** Smallest file, in bytes, that is stored as a delta. */
+    private static final int MIN_DELTA_BYTES = 64;
+    /** Most deltas between a blob and the full blob at the end of its chain. */
+    private static final int MAX_DEPTH = 50;
+    /** Bytes of rebuilt contents kept in memory. */
+    private static final long CACHE_BYTES = 32 << 20;
+    /** Recently rebuilt contents, least recently used first, with SHA-1 ID as key. */
+    private static final LinkedHashMap<String, byte[]> REBUILT =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** Bytes held by REBUILT. */
+    private static long rebuiltBytes = 0;
     /** the SHA-1 ID of a blob. */
     private final String fileID;
-    /** the absolute filepath of a blob. */
+    /** the absolute filepath of a blob, or null for a stored blob. */
     private String filePath;
-    /** the source file of a blob. */
+    /** the source file of a blob, or null for a stored blob. */
     private final File currentFile;
+    /** the object directory of a stored blob, or null for a working file. */
+    private final File objectDir;
     /**
      * Creates a blob object with the specified parameters.
      * @param file currentFile.
      */
     public Blob(File file) {
         currentFile = file;
-        fileContents = readContentsAsString(file);
+        objectDir = null;
         filePath = file.getAbsolutePath();
         fileID = generateBlobID();
     }
 
+    /**
+     * Creates a blob object of a working file whose SHA-1 ID is already known.
+     * @param file currentFile.
+     * @param id String of SHA-1 ID of the file contents.
+     */
+    public Blob(File file, String id) {
+        currentFile = file;
+        objectDir = null;
+        filePath = file.getAbsolutePath();
+        fileID = id;
+    }
+
+    /**
+     * Creates a blob object of contents already stored in an object directory.
+     * @param id String of SHA-1 ID.
+     * @param fileDir File of object directory.
+     */
+    public Blob(String id, File fileDir) {
+        fileID = id;
+        objectDir = fileDir;
+        currentFile = null;
+        filePath = null;
+    }
+
+    /**
+     * get the SHA-1 ID of a blob with given contents.
+     * @param contents byte array of file contents.
+     * @return String of SHA-1 ID.
+     */
+    public static String idOf(byte[] contents) {
+        return sha1(header(contents.length), contents);
+    }
+
     /**
      * Get SHA-1 ID of this blob object.
      * @return String SHA-1 of this blob object.
@@ -45,11 +122,37 @@ public class Blob implements Serializable {
         return fileID;
     }
     /**
-     * Get the contents of this file in string format.
-     * @return String contents of this file, which converted into a blob.
+     * Get the contents of this blob as raw bytes.
+     * @return byte array of contents, inflated from the object store.
+     * */
+    public byte[] getFileContents() {
+        if (currentFile != null) {
+            return readContents(currentFile);
+        }
+        try (InputStream in = openContents()) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw error("Cannot read blob %s: %s", fileID, excp.getMessage());
+        }
+    }
+
+    /**
+     * Inflate the contents of this blob straight into a file through a channel,
+     * creating or overwriting it as needed.
+     * @param file File that need to be written into.
      * */
-    public String getFileContents() {
-        return fileContents;
+    public void writeTo(File file) {
+        try (ReadableByteChannel in = Channels.newChannel(openContents());
+             FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long transferred;
+            while ((transferred = out.transferFrom(in, position, TRANSFER_BYTES)) > 0) {
+                position += transferred;
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
     }
 
     /**
@@ -64,19 +167,68 @@ public class Blob implements Serializable {
     public void save() {
         save(OBJECT_DIR);
     }
+
+    /**
+     * save this blob into an object directory, unless it is already there.
+     * A working file is compressed while streaming it;
+     * a stored blob is copied as its compressed bytes.
+     * @param fileDir File of object directory.
+     * */
     public void save(File fileDir) {
-        File objectFile = objectFile(fileID, fileDir);
-        saveObjectFile(objectFile, this);
+        save(fileDir, null);
     }
 
-    /** update the file path of blob. */
-    public void updatePath() {
-        filePath = join(CWD, currentFile.getName()).getAbsolutePath();
-        save();
+    /**
+     * save this blob into an object directory, unless it is already there,
+     * as a delta against a base blob when that is much smaller than its contents.
+     * @param fileDir File of object directory.
+     * @param baseID String of SHA-1 ID of the stored version this file replaces, or null.
+     * */
+    public void save(File fileDir, String baseID) {
+        if (currentFile == null) {
+            copyObject(fileID, objectDir, fileDir);
+            return;
+        }
+        File objectFile = objectFile(fileID, fileDir);
+        if (objectFile.exists() || WriteBatch.isPending(objectFile)
+                || Pack.of(fileDir).contains(fileID)) {
+            return;
+        }
+        File temp = WriteBatch.tempFor(objectFile);
+        try {
+            byte[] delta = baseID == null ? null : encodeDelta(baseID, fileDir);
+            if (delta != null) {
+                Files.write(temp.toPath(), delta);
+            } else {
+                try (OutputStream out = new DeflaterOutputStream(
+                        Files.newOutputStream(temp.toPath()))) {
+                    Files.copy(currentFile.toPath(), out);
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("Cannot save blob %s: %s", fileID, excp.getMessage());
+        }
+        WriteBatch.add(temp, objectFile);
     }
-    public void updatePath(File fileDir) {
-        filePath = join(fileDir.getParentFile(), currentFile.getName()).getAbsolutePath();
-        save(join(fileDir, OBJECT_DIR.getName()));
+
+    /**
+     * get the SHA-1 ID of the base of a stored blob.
+     * @param id String of SHA-1 ID of a stored blob.
+     * @param fileDir File of object directory.
+     * @return String of SHA-1 ID of its delta base, or null if it is stored whole.
+     * */
+    public static String deltaBaseID(String id, File fileDir) {
+        try (DataInputStream in = new DataInputStream(openObject(id, fileDir))) {
+            if (in.read() != DELTA_MARK) {
+                return null;
+            }
+            byte[] base = new byte[Pack.ID_BYTES];
+            in.readFully(base);
+            return MyUtils.bytesToHex(base);
+        } catch (IOException excp) {
+            throw error("Cannot read blob %s: %s", id, excp.getMessage());
+        }
     }
 
     /** Get blob source file. */
@@ -85,11 +237,117 @@ public class Blob implements Serializable {
     }
     /** private HELP method. */
 
+    /** open the inflated contents of this blob, rebuilding it if it is a delta. */
+    private InputStream openContents() throws IOException {
+        if (currentFile != null) {
+            return Files.newInputStream(currentFile.toPath());
+        }
+        byte[] rebuilt = cached(fileID);
+        if (rebuilt != null) {
+            return new ByteArrayInputStream(rebuilt);
+        }
+        InputStream in = new BufferedInputStream(openObject(fileID, objectDir));
+        in.mark(1);
+        if (in.read() != DELTA_MARK) {
+            in.reset();
+            return new InflaterInputStream(in);
+        }
+        try (DataInputStream delta = new DataInputStream(in)) {
+            byte[] base = new byte[Pack.ID_BYTES];
+            delta.readFully(base);
+            delta.readUnsignedByte();
+            int length = delta.readInt();
+            byte[] baseContents = new Blob(MyUtils.bytesToHex(base), objectDir).getFileContents();
+            rebuilt = Delta.apply(baseContents, new InflaterInputStream(delta), length);
+        }
+        cache(fileID, rebuilt);
+        return new ByteArrayInputStream(rebuilt);
+    }
+
     /**
-     * generate the SHA-1 ID of Blob, using the absolute filepath and file contents.
+     * encode the working file as a delta against a stored base blob.
+     * @return byte array of the stored delta, or null if the file should be stored whole:
+     * it is small or too large, the base is missing or too large,
+     * the chain is too deep, or the delta saves less than half.
+     * The file length only rules out files early; the contents are read once, and
+     * the size in the delta header is the length of the bytes encoded.
+     * */
+    private byte[] encodeDelta(String baseID, File fileDir) throws IOException {
+        long length = currentFile.length();
+        if (baseID.equals(fileID) || length < MIN_DELTA_BYTES || length > MAX_DELTA_BYTES
+                || !(objectFile(baseID, fileDir).exists() || Pack.of(fileDir).contains(baseID))) {
+            return null;
+        }
+        int depth;
+        byte[] baseContents;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(openObject(baseID, fileDir)))) {
+            in.mark(1);
+            if (in.read() == DELTA_MARK) {
+                in.skipNBytes(Pack.ID_BYTES);
+                depth = in.readUnsignedByte() + 1;
+                baseContents = depth > MAX_DEPTH ? null
+                        : new Blob(baseID, fileDir).getFileContents();
+            } else {
+                in.reset();
+                depth = 0;
+                baseContents = new InflaterInputStream(in).readNBytes(MAX_DELTA_BYTES + 1);
+            }
+        }
+        if (baseContents == null || baseContents.length > MAX_DELTA_BYTES) {
+            return null;
+        }
+        cache(baseID, baseContents);
+        byte[] contents = readContents(currentFile);
+        if (contents.length < MIN_DELTA_BYTES || contents.length > MAX_DELTA_BYTES) {
+            return null;
+        }
+        byte[] ops = Delta.compute(baseContents, contents);
+        if (ops.length > contents.length / 2) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DELTA_MARK);
+        out.write(MyUtils.hexToBytes(baseID));
+        out.writeByte(depth);
+        out.writeInt(contents.length);
+        try (OutputStream compressed = new DeflaterOutputStream(bytes)) {
+            compressed.write(ops);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return byte array of cached contents of a blob, or null. */
+    private static synchronized byte[] cached(String id) {
+        return REBUILT.get(id);
+    }
+
+    /** Cache the contents of a blob, dropping the least recently used ones. */
+    private static synchronized void cache(String id, byte[] contents) {
+        if (contents.length > CACHE_BYTES || REBUILT.containsKey(id)) {
+            return;
+        }
+        REBUILT.put(id, contents);
+        rebuiltBytes += contents.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = REBUILT.entrySet().iterator();
+        while (rebuiltBytes > CACHE_BYTES) {
+            rebuiltBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * generate the SHA-1 ID of Blob, using the file contents only,
+     * so the same contents share one blob whatever their path.
      * @return String that generated by SHA-1.
      */
     private String generateBlobID() {
-        return sha1(filePath, fileContents);
+        return sha1(header(currentFile.length()), currentFile);
+    }
+
+    /** @return String hashed before contents of SIZE bytes. */
+    private static String header(long size) {
+        return "blob " + size + "\0";
     }
 }
@@ -1,18 +1,24 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import static gitlet.HelpMethod.*;
-import static gitlet.MyUtils.updateIntoFile;
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.GITLET_DIR;
 import static gitlet.Repository.OBJECT_DIR;
 import static gitlet.Utils.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 import java.text.DateFormat;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 // import java.util.TimeZone;
@@ -22,15 +28,27 @@ import java.util.Date;
  *  A commit contains:
  *  1. parent ID (SHA1)
  *  2. meta data such as: timestamp, log message
- *  3. files ID (SHA1)
+ *  3. tree ID (SHA1) of the top directory of tracked files
  *  4. own commit ID (SHA1)
  *
  *  this class contains the methods:
  *  1. initialize;
  *  2. get own ID (SHA1);
  *  3. get timestamp;
+ *
+ *  A commit is stored as canonical UTF-8 text, and its ID is the SHA-1 of that text:
+ *<pre>
+ *  gitlet-commit 1
+ *  tree [SHA-1 ID]
+ *  parent [SHA-1 ID]     // none for the initial commit, two for a merge
+ *  time [milliseconds since the epoch]
+ *
+ *  [message]
+ *</pre>
  */
-public class Commit implements Serializable {
+public class Commit implements Dumpable {
+    /** First line of a stored commit, naming the version of its encoding. */
+    static final String HEADER = "gitlet-commit 1";
 
     /**
      * The input message of this commit.
@@ -49,9 +67,14 @@ public class Commit implements Serializable {
      */
     private final String secondParentID;
     /**
-     * Map of tracked files with filepath as key and fileID(SHA1) as values.
+     * SHA-1 ID of the tree that maps tracked file names to fileID(SHA1).
      */
-    private final Map<String, String> tracked;
+    private final String treeID;
+    /**
+     * Map of tracked files with filepath as key and fileID(SHA1) as values,
+     * read from the tree on first use.
+     */
+    private Map<String, String> tracked;
     /**
      * SHA-1 ID of this commit.
      */
@@ -61,9 +84,34 @@ public class Commit implements Serializable {
      * Creates a commit object with the specified parameters.
      * @param m String of the commit message.
      * @param p String of the parent SHA-1 ID of this new commit.
-     * @param t ArrayList<String> the files SHA-1 IDs it points to.
+     * @param t Map of tracked files with filepath as key and fileID(SHA1) as values.
      */
     public Commit(String m, String p, String p2, Map<String, String> t) {
+        this(m, p, p2, t, writeTree(t));
+    }
+
+    /**
+     * Creates a commit object whose tree is already written.
+     * @param m String of the commit message.
+     * @param p String of the parent SHA-1 ID of this new commit.
+     * @param t Map of tracked files with filepath as key and fileID(SHA1) as values.
+     * @param tree String of SHA-1 ID of the tree written from T.
+     */
+    public Commit(String m, String p, String p2, Map<String, String> t, String tree) {
+        this(m, p, p2, t, tree, () -> { });
+    }
+
+    /**
+     * Creates a commit object, running a step between storing it and moving the branch.
+     * @param m String of the commit message.
+     * @param p String of the parent SHA-1 ID of this new commit.
+     * @param t Map of tracked files with filepath as key and fileID(SHA1) as values.
+     * @param tree String of SHA-1 ID of the tree written from T.
+     * @param beforeRef Runnable run once the commit and its objects are durable,
+     *                  like saving the index that names its tree.
+     */
+    public Commit(String m, String p, String p2, Map<String, String> t, String tree,
+                  Runnable beforeRef) {
         message = m;
         parentID = p;
         secondParentID = p2;
@@ -72,11 +120,86 @@ public class Commit implements Serializable {
         } else {
             date = new Date();
         }
-        tracked = t;
-        commitID = generateCommitID();
-        updateIntoFile(Repository.COMMITS, commitID);
-        writeContents(getActiveBranchFile(), commitID);
+        treeID = tree;
+        tracked = new HashMap<>(t);
+        commitID = sha1((Object) encode());
         save();
+        WriteBatch.publish();
+        long start = Trace.start();
+        CommitGraph.of(GITLET_DIR).append(this);
+        Trace.phase("commit graph", start);
+        beforeRef.run();
+        moveActiveBranch(commitID, (parentID == null ? "commit (initial): "
+                : secondParentID == null ? "commit: " : "commit (merge): ") + message);
+    }
+
+    /**
+     * Write the trees of a set of tracked files.
+     * @param t Map of tracked files with filepath as key and fileID(SHA1) as values.
+     * @return String of SHA-1 ID of the top tree.
+     */
+    public static String writeTree(Map<String, String> t) {
+        long start = Trace.start();
+        Map<String, String> names = new HashMap<>();
+        for (Map.Entry<String, String> entry : t.entrySet()) {
+            names.put(relativePath(entry.getKey()), entry.getValue());
+        }
+        String id = Tree.write(names, OBJECT_DIR);
+        Trace.phase("tree write", start);
+        return id;
+    }
+
+    /** Creates a commit object read back from its canonical encoding. */
+    private Commit(String id, String m, Date d, String p, String p2, String tree) {
+        commitID = id;
+        message = m;
+        date = d;
+        parentID = p;
+        secondParentID = p2;
+        treeID = tree;
+    }
+
+    /**
+     * read a stored commit.
+     * @param id String of full SHA-1 ID.
+     * @param objectDir File of object directory.
+     */
+    public static Commit read(String id, File objectDir) {
+        try (InputStream in = openObject(id, objectDir)) {
+            return decode(id, in.readAllBytes());
+        } catch (IOException excp) {
+            throw error("Cannot read commit %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /**
+     * decode a commit from its canonical encoding.
+     * @param id String of SHA-1 ID of the commit.
+     * @param bytes byte array of the stored commit.
+     */
+    public static Commit decode(String id, byte[] bytes) {
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        int body = text.indexOf("\n\n");
+        if (!text.startsWith(HEADER + "\n") || body < 0) {
+            throw error("Object %s is not a commit.", id);
+        }
+        String tree = null;
+        String[] parents = new String[2];
+        int parentCount = 0;
+        long time = 0;
+        for (String line : text.substring(HEADER.length() + 1, body).split("\n")) {
+            String[] fields = line.split(" ", 2);
+            if (fields[0].equals("tree")) {
+                tree = fields[1];
+            } else if (fields[0].equals("parent") && parentCount < 2) {
+                parents[parentCount] = fields[1];
+                parentCount += 1;
+            } else if (fields[0].equals("time")) {
+                time = Long.parseLong(fields[1]);
+            }
+        }
+        return new Commit(id, text.substring(body + 2), new Date(time),
+                parents[0], parents[1], tree);
     }
 
     /**
@@ -101,6 +224,12 @@ public class Commit implements Serializable {
     public String getSecondParentID() {
         return secondParentID;
     }
+    /**
+     * get the SHA-1 ID of the tree of this commit.
+     * */
+    public String getTreeID() {
+        return treeID;
+    }
     /**
      * get date of the time that this commit was created.
      */
@@ -114,34 +243,61 @@ public class Commit implements Serializable {
     }
 
     public void save(File fileDir) {
-        File objectFile = objectFile(commitID, fileDir);
-        saveObjectFile(objectFile, this);
-    }
-
-
-    /** update the commit file path to given directory. */
-    public void updatePath(File fileDir) {
-        Map<String, String> newMap = new HashMap<>();
-        for (String path : tracked.keySet()) {
-            String fileID = tracked.get(path);
-            newMap.put(join(fileDir.getParentFile(),
-                    join(path).getName()).getAbsolutePath(), fileID);
+        File file = objectFile(commitID, fileDir);
+        if (file.exists() || WriteBatch.isPending(file) || Pack.of(fileDir).contains(commitID)) {
+            return;
         }
-        tracked.clear();
-        tracked.putAll(newMap);
-        save(join(fileDir, OBJECT_DIR.getName()));
-
+        WriteBatch.write(file, encode());
     }
 
+
     /**
      * Get the timestamp string like Thu Nov 9 20:00:05 2017 -0800
      * @return String of timestamp of the time when this commit generated.
      */
     public String getTimestamp() {
+        return formatTimestamp(date);
+    }
+
+    /**
+     * Format a date like Thu Nov 9 20:00:05 2017 -0800
+     * @return String of timestamp of the given date.
+     */
+    public static String formatTimestamp(Date d) {
         //DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss 'UTC,' EEEE',' d MMMM yyyy");
         //dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
-        return dateFormat.format(date);
+        return timestampFormat().format(d);
+    }
+
+    /**
+     * get a format of timestamps like Thu Nov 9 20:00:05 2017 -0800.
+     * A format is not thread-safe, but can be reused to print many commits.
+     * @return DateFormat of commit timestamps.
+     */
+    public static DateFormat timestampFormat() {
+        return new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
+    }
+
+    /**
+     * Parse a date given on the command line, either like 2017-11-09,
+     * 2017-11-09 20:00, 2017-11-09 20:00:05, or like a commit timestamp.
+     * @return Date of the given text, or null if it is not a date.
+     */
+    public static Date parseTimestamp(String text) {
+        String[] patterns = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+        List<DateFormat> formats = new ArrayList<>();
+        for (String pattern : patterns) {
+            formats.add(new SimpleDateFormat(pattern, Locale.ENGLISH));
+        }
+        formats.add(timestampFormat());
+        for (DateFormat format : formats) {
+            ParsePosition position = new ParsePosition(0);
+            Date d = format.parse(text.trim(), position);
+            if (d != null && position.getIndex() == text.trim().length()) {
+                return d;
+            }
+        }
+        return null;
     }
     /**
      * get the message of this commit.
@@ -152,20 +308,41 @@ public class Commit implements Serializable {
     }
 
     /**
-     *@return Map of tracked files.
+     *@return Map of tracked files, with absolute path in the working directory as key.
      * */
     public Map<String, String> getFiles() {
+        if (tracked == null) {
+            tracked = new HashMap<>();
+            for (Map.Entry<String, String> entry
+                    : Tree.flatten(treeID, OBJECT_DIR).entrySet()) {
+                tracked.put(absolutePath(entry.getKey()), entry.getValue());
+            }
+        }
         return tracked;
     }
 
 
+    /** Print this commit for DumpObj. */
+    @Override
+    public void dump() {
+        System.out.println("commit " + commitID);
+        System.out.print(new String(encode(), StandardCharsets.UTF_8));
+        System.out.println();
+    }
+
     /** private HELP method. */
 
-    /**
-     * Generate this commit SHA-1 ID.
-     * @return String of SHA-1 ID.
-     */
-    private String generateCommitID() {
-        return sha1(getTimestamp() + message +  parentID + tracked.toString());
+    /** @return byte array of the canonical encoding of this commit. */
+    private byte[] encode() {
+        StringBuilder text = new StringBuilder(HEADER).append('\n');
+        text.append("tree ").append(treeID).append('\n');
+        for (String parent : new String[]{parentID, secondParentID}) {
+            if (parent != null) {
+                text.append("parent ").append(parent).append('\n');
+            }
+        }
+        text.append("time ").append(date.getTime()).append("\n\n");
+        text.append(message);
+        return text.toString().getBytes(StandardCharsets.UTF_8);
     }
 }
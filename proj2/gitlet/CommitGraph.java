@@ -0,0 +1,323 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+import static gitlet.MyUtils.*;
+
+/** Represents the commit graph of a gitlet directory.
+ * @author ASmellyCat
+ * The graph is made of two append-only files:
+ * 1. commit-graph - one fixed-width record per commit, in the order commits were made.
+ * 2. commit-graph.msg - the length-prefixed messages that records point to.
+ *<pre>
+ * record (48 bytes)
+ *    ├── SHA-1 ID          (20 bytes)
+ *    ├── parent index      (int, -1 if none)
+ *    ├── second parent     (int, -1 if none)
+ *    ├── generation number (int, 1 for the initial commit)
+ *    ├── timestamp         (long, milliseconds)
+ *    └── message offset    (long, into commit-graph.msg)
+ *</pre>
+ * A parent is always recorded before its children, so the record order is
+ * a topological order, and log, global-log, find and merge can walk the
+ * history without reading a single commit object.
+ * Every append also updates the MessageIndex, which find uses to look up messages.
+ * Records and messages are written where the graph read as its end, so a torn
+ * write left by a crash is overwritten, and both files are fsynced by the next
+ * WriteBatch.publish, before the ref of the commit moves.
+ */
+public class CommitGraph {
+    /** Bytes of one record. */
+    static final int RECORD_BYTES = Pack.ID_BYTES + 4 + 4 + 4 + 8 + 8;
+    /** Index used when a commit has no such parent. */
+    static final int NONE = -1;
+
+    /** Graphs already opened by this process, with gitlet directory as key.
+     *  Graphs are looked up from the parallel add and status paths, so it is concurrent. */
+    private static final Map<File, CommitGraph> OPENED = new ConcurrentHashMap<>();
+
+    /** The file of records. */
+    private final File graphFile;
+    /** The file of messages. */
+    private final File messageFile;
+    /** All records, with room to append more. */
+    private ByteBuffer records;
+    /** Messages of all records, with room to append more. */
+    private ByteBuffer messages;
+    /** Number of records. */
+    private int size;
+    /** Map of SHA-1 ID as key and record index as value, built on first use. */
+    private volatile Map<String, Integer> positions;
+    /** Number of commits popped by the last merge-base walk. */
+    private int visited;
+
+    /** Open the commit graph of a given gitlet directory. */
+    private CommitGraph(File gitletDir) {
+        graphFile = join(gitletDir, "commit-graph");
+        messageFile = join(gitletDir, "commit-graph.msg");
+        byte[] bytes = graphFile.exists() ? readContents(graphFile) : new byte[0];
+        records = ByteBuffer.allocate(Math.max(bytes.length * 2, RECORD_BYTES * 16));
+        records.put(bytes);
+        size = bytes.length / RECORD_BYTES;
+        bytes = messageFile.exists() ? readContents(messageFile) : new byte[0];
+        messages = ByteBuffer.allocate(Math.max(bytes.length * 2, 1024));
+        messages.put(bytes);
+    }
+
+    /** get the commit graph of a gitlet directory, opening it only once per process. */
+    public static CommitGraph of(File gitletDir) {
+        return OPENED.computeIfAbsent(gitletDir.getAbsoluteFile(), CommitGraph::new);
+    }
+
+    /**
+     * Forget opened graphs whose files were changed by another process.
+     * @return boolean of whether any graph was forgotten.
+     */
+    public static boolean refresh() {
+        return OPENED.values().removeIf(graph -> graph.graphFile.length()
+                != (long) graph.size * RECORD_BYTES
+                || graph.messageFile.length() != graph.messages.position());
+    }
+
+    /** @return number of commits in the graph. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get the record index of a commit.
+     * @param id String of full SHA-1 ID.
+     * @return int of index, or NONE if the commit is not in the graph.
+     * */
+    public int indexOf(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        Map<String, Integer> built = positions;
+        if (built == null) {
+            built = new HashMap<>();
+            for (int i = 0; i < size; i += 1) {
+                built.put(id(i), i);
+            }
+            positions = built;
+        }
+        return built.getOrDefault(id, NONE);
+    }
+
+    /** @return boolean of whether a commit is in the graph. */
+    public boolean contains(String id) {
+        return indexOf(id) != NONE;
+    }
+
+    /** @return String of SHA-1 ID of record I. */
+    public String id(int i) {
+        byte[] bytes = new byte[Pack.ID_BYTES];
+        records.get(i * RECORD_BYTES, bytes);
+        return bytesToHex(bytes);
+    }
+
+    /** @return int of parent index of record I, or NONE. */
+    public int parent(int i) {
+        return records.getInt(i * RECORD_BYTES + Pack.ID_BYTES);
+    }
+
+    /** @return int of second parent index of record I, or NONE. */
+    public int secondParent(int i) {
+        return records.getInt(i * RECORD_BYTES + Pack.ID_BYTES + 4);
+    }
+
+    /** @return int of generation number of record I. */
+    public int generation(int i) {
+        return records.getInt(i * RECORD_BYTES + Pack.ID_BYTES + 8);
+    }
+
+    /** @return long of timestamp of record I in milliseconds. */
+    public long time(int i) {
+        return records.getLong(i * RECORD_BYTES + Pack.ID_BYTES + 12);
+    }
+
+    /** @return String of commit message of record I. */
+    public String message(int i) {
+        int offset = (int) records.getLong(i * RECORD_BYTES + Pack.ID_BYTES + 20);
+        int length = messages.getInt(offset);
+        return new String(messages.array(), offset + 4, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * get the latest common ancestor of two commits.
+     * Both commits paint their ancestors, and commits are popped by
+     * decreasing generation number, so every descendant of a commit is popped
+     * before it, and the first commit painted by both sides is a merge base.
+     * Generation numbers only depend on the graph, so clock skew between
+     * commits cannot reorder the walk.
+     * @param a int of record index of one commit.
+     * @param b int of record index of the other commit.
+     * @return int of record index of the merge base, or NONE if there is none.
+     * */
+    public int mergeBase(int a, int b) {
+        visited = 0;
+        if (a == NONE || b == NONE) {
+            return NONE;
+        }
+        byte[] painted = new byte[size];
+        Comparator<Integer> latestFirst = Comparator.comparingInt(this::generation)
+                .thenComparingInt(i -> i);
+        PriorityQueue<Integer> queue = new PriorityQueue<>(latestFirst.reversed());
+        painted[a] |= 1;
+        painted[b] |= 2;
+        queue.add(a);
+        if (b != a) {
+            queue.add(b);
+        }
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            visited += 1;
+            if (painted[i] == 3) {
+                return i;
+            }
+            for (int parent : new int[]{parent(i), secondParent(i)}) {
+                if (parent == NONE || (painted[parent] | painted[i]) == painted[parent]) {
+                    continue;
+                }
+                if (painted[parent] == 0) {
+                    queue.add(parent);
+                }
+                painted[parent] |= painted[i];
+            }
+        }
+        return NONE;
+    }
+
+    /** @return int of number of commits popped by the last merge-base walk. */
+    public int visitedCount() {
+        return visited;
+    }
+
+    /** Append a new commit to the graph. */
+    public void append(Commit commit) {
+        append(commit.getCommitID(), commit.getParentID(), commit.getSecondParentID(),
+                commit.getDate().getTime(), commit.getMessage());
+    }
+
+    /**
+     * Append a commit to the graph, unless it is already there.
+     * Its parents must have been appended before.
+     * @param id String of SHA-1 ID.
+     * @param parentID String of parent SHA-1 ID, or null.
+     * @param secondParentID String of second parent SHA-1 ID, or null.
+     * @param time long of timestamp in milliseconds.
+     * @param message String of commit message.
+     * */
+    public void append(String id, String parentID, String secondParentID,
+                       long time, String message) {
+        if (contains(id)) {
+            return;
+        }
+        int parent = indexOf(parentID);
+        int secondParent = indexOf(secondParentID);
+        int generation = 1;
+        if (parent != NONE) {
+            generation = Math.max(generation, generation(parent) + 1);
+        }
+        if (secondParent != NONE) {
+            generation = Math.max(generation, generation(secondParent) + 1);
+        }
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer messageEntry = ByteBuffer.allocate(4 + text.length);
+        messageEntry.putInt(text.length).put(text).flip();
+        long offset = messages.position();
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.put(hexToBytes(id)).putInt(parent).putInt(secondParent).putInt(generation)
+                .putLong(time).putLong(offset).flip();
+
+        writeAt(messageFile, messageEntry.duplicate(), offset);
+        writeAt(graphFile, record.duplicate(), (long) size * RECORD_BYTES);
+
+        messages = ensureRemaining(messages, messageEntry.remaining());
+        messages.put(messageEntry);
+        records = ensureRemaining(records, RECORD_BYTES);
+        records.put(record);
+        if (positions != null) {
+            positions.put(id, size);
+        }
+        size += 1;
+        MessageIndex.update(this);
+    }
+
+    /**
+     * Rewrite the graph with only the given records, in the same order.
+     * Messages stay where they are, so only the record file is replaced, in one rename.
+     * The message index is dropped first, and rebuilt on next use.
+     * @param keep BitSet of record indexes to keep; parents of kept records must be kept.
+     */
+    public void retain(BitSet keep) {
+        int kept = keep.cardinality();
+        if (kept == size) {
+            return;
+        }
+        int[] renumbered = new int[size];
+        ByteBuffer out = ByteBuffer.allocate(kept * RECORD_BYTES);
+        int n = 0;
+        for (int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1)) {
+            renumbered[i] = n;
+            int at = n * RECORD_BYTES;
+            System.arraycopy(records.array(), i * RECORD_BYTES, out.array(), at, RECORD_BYTES);
+            int parent = parent(i);
+            int secondParent = secondParent(i);
+            out.putInt(at + Pack.ID_BYTES, parent == NONE ? NONE : renumbered[parent]);
+            out.putInt(at + Pack.ID_BYTES + 4,
+                    secondParent == NONE ? NONE : renumbered[secondParent]);
+            n += 1;
+        }
+        MessageIndex.clear(getDirectory());
+        WriteBatch.publishFile(graphFile, out.array());
+        records = ByteBuffer.allocate(Math.max(out.capacity() * 2, RECORD_BYTES * 16));
+        records.put(out.array());
+        size = n;
+        positions = null;
+    }
+
+    /** @return File of the gitlet directory of this graph. */
+    public File getDirectory() {
+        return graphFile.getParentFile();
+    }
+
+    /** private HELP method. */
+
+    /** @return BUFFER, or a copy of it twice as large if it cannot hold N more bytes. */
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int n) {
+        if (buffer.remaining() >= n) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+                buffer.position() + n));
+        bigger.put(buffer.array(), 0, buffer.position());
+        return bigger;
+    }
+
+    /** Write BUFFER into FILE at POSITION, creating it if needed, to be fsynced by publish. */
+    private static void writeAt(File file, ByteBuffer buffer, long position) {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer, position + buffer.position());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
+        WriteBatch.appended(file);
+    }
+}
@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static gitlet.MyUtils.*;
+
+/**Represents a resident gitlet process serving commands of one repository.
+ * @author ASmellyCat
+ * The daemon listens on a loopback port, written with a random token to
+ * .gitlet/daemon. While that file exists, Main forwards its arguments to
+ * the daemon instead of running the command itself:
+ *<pre>
+ * request:  [token (UTF)] [number of arguments (int)] [argument (UTF)] ...
+ * response: [channel (byte)] [length (int)] [bytes] ... until channel EXIT,
+ *           whose length is the exit code.
+ *</pre>
+ * Commands run one at a time through the same code as a plain run, so the
+ * index, commit graph, packs and decoded objects stay in memory between them.
+ * Those caches are checked against their files before every command,
+ * so changes made by a plain run or by another repository are picked up;
+ * decoded commits are dropped when the commit graph was changed that way.
+ * A command that fails or exits early drops the index it may have changed.
+ */
+public class Daemon {
+    /** Channel of output written to System.out. */
+    private static final int OUT = 1;
+    /** Channel of output written to System.err. */
+    private static final int ERR = 2;
+    /** Channel that ends a response, with the exit code as length. */
+    private static final int EXIT = 0;
+    /** Milliseconds between checks that the daemon file still exists. */
+    private static final int POLL_MILLIS = 1000;
+
+    /** The file holding the port and token of a running daemon. */
+    static final File DAEMON_FILE = join(GITLET_DIR, "daemon");
+
+    /** Whether this process is serving a command for a client. */
+    private static boolean serving = false;
+
+    /** Thrown by exit while serving, instead of ending the daemon process. */
+    static class CommandExit extends RuntimeException {
+        /** Version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        CommandExit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** @return boolean of whether this process is serving a command for a client. */
+    public static boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * daemon
+     * Serve commands of this repository until stopped, or until .gitlet/daemon is deleted.
+     */
+    public static void serve() {
+        if (DAEMON_FILE.exists() && forward(new String[]{"daemon", "ping"})) {
+            exit("A daemon is already running.");
+        }
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        String token = bytesToHex(secret);
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.setSoTimeout(POLL_MILLIS);
+            writeContents(DAEMON_FILE, server.getLocalPort() + " " + token);
+            System.out.println("Serving on port " + server.getLocalPort() + ".");
+            while (DAEMON_FILE.exists()) {
+                try (Socket socket = server.accept()) {
+                    if (!handle(socket, token)) {
+                        break;
+                    }
+                } catch (SocketTimeoutException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Daemon stopped: %s", excp.getMessage());
+        } finally {
+            DAEMON_FILE.delete();
+        }
+    }
+
+    /**
+     * Forward a command to the daemon of this repository, if one is running,
+     * and copy its output to System.out and System.err.
+     * @param args String array of the command and its operands.
+     * @return boolean of whether a daemon ran the command.
+     */
+    public static boolean forward(String[] args) {
+        if (!DAEMON_FILE.isFile()) {
+            return false;
+        }
+        String[] portAndToken = readContentsAsString(DAEMON_FILE).trim().split(" ");
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(portAndToken[0])), POLL_MILLIS);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(portAndToken[1]);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                int channel = in.readUnsignedByte();
+                int length = in.readInt();
+                if (channel == EXIT) {
+                    System.out.flush();
+                    if (length != 0 || !args[0].equals("daemon")) {
+                        System.exit(length);
+                    }
+                    return true;
+                }
+                byte[] bytes = in.readNBytes(length);
+                (channel == ERR ? System.err : System.out).write(bytes);
+            }
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException excp) {
+            return false;
+        }
+    }
+
+    /** private HELP method. */
+
+    /**
+     * Run one request from a client.
+     * @return boolean of whether to keep serving.
+     */
+    private static boolean handle(Socket socket, String token) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        if (!in.readUTF().equals(token)) {
+            return true;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        boolean keepServing = !(args.length == 2 && args[0].equals("daemon")
+                && args[1].equals("stop"));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        int code = 0;
+        try (PrintStream clientOut = new PrintStream(
+                new BufferedOutputStream(new Channel(out, OUT)), false, StandardCharsets.UTF_8);
+             PrintStream clientErr = new PrintStream(
+                     new BufferedOutputStream(new Channel(out, ERR)), false,
+                     StandardCharsets.UTF_8)) {
+            System.setOut(clientOut);
+            System.setErr(clientErr);
+            serving = true;
+            try {
+                if (args.length > 0 && args[0].equals("daemon")) {
+                    System.out.print(keepServing ? "" : "Daemon stopped.\n");
+                } else {
+                    refreshCaches();
+                    Main.run(args);
+                }
+            } catch (CommandExit excp) {
+                StagingArea.forget();
+                code = 0;
+            } catch (RuntimeException excp) {
+                StagingArea.forget();
+                System.out.flush();
+                System.err.print("Exception in thread \"main\" ");
+                excp.printStackTrace();
+                code = 1;
+            } finally {
+                serving = false;
+                WriteBatch.discard();
+                System.setOut(stdout);
+                System.setErr(stderr);
+            }
+        }
+        out.writeByte(EXIT);
+        out.writeInt(code);
+        out.flush();
+        return keepServing;
+    }
+
+    /** Drop cached state whose files were changed by another process. */
+    private static void refreshCaches() {
+        StagingArea.refresh();
+        if (CommitGraph.refresh()) {
+            HelpMethod.clearCommitCache();
+        }
+        Pack.refresh();
+        Refs.refresh();
+    }
+
+    /** An output stream that sends what is written as frames of one channel. */
+    private static class Channel extends OutputStream {
+        /** The stream to the client. */
+        private final DataOutputStream out;
+        /** The channel of frames. */
+        private final int channel;
+
+        Channel(DataOutputStream o, int c) {
+            out = o;
+            channel = c;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
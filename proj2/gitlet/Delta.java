@@ -0,0 +1,152 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** Represents binary deltas between two versions of a file.
+ * @author ASmellyCat
+ * A delta is a list of operations that rebuild the target from its base:
+ * 1. COPY [offset] [length] - copy bytes of the base.
+ * 2. INSERT [length] [bytes] - insert literal bytes.
+ *
+ * Matches are found by indexing the base in blocks of BLOCK bytes,
+ * then rolling a hash over the target one byte at a time,
+ * so computing a delta is linear in the size of both files.
+ */
+public class Delta {
+    /** Bytes of a base block that the index is built on. */
+    private static final int BLOCK = 16;
+    /** Operation that copies bytes of the base. */
+    private static final int COPY = 0;
+    /** Operation that inserts literal bytes. */
+    private static final int INSERT = 1;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME to the power of BLOCK - 1, to roll the first byte out of a hash. */
+    private static final int PRIME_POW;
+
+    static {
+        int pow = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            pow *= PRIME;
+        }
+        PRIME_POW = pow;
+    }
+
+    /**
+     * compute the delta that rebuilds TARGET from BASE.
+     * @return byte array of encoded operations.
+     * */
+    public static byte[] compute(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            int literal = 0;
+            int pos = 0;
+            int h = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (pos + BLOCK <= target.length) {
+                Integer start = blocks.get(h);
+                int length = start == null ? 0 : matchLength(base, start, target, pos);
+                if (length >= BLOCK) {
+                    writeInsert(out, target, literal, pos);
+                    out.writeByte(COPY);
+                    out.writeInt(start);
+                    out.writeInt(length);
+                    pos += length;
+                    literal = pos;
+                    if (pos + BLOCK <= target.length) {
+                        h = hash(target, pos);
+                    }
+                    continue;
+                }
+                if (pos + BLOCK < target.length) {
+                    h = (h - target[pos] * PRIME_POW) * PRIME + target[pos + BLOCK];
+                }
+                pos += 1;
+            }
+            writeInsert(out, target, literal, target.length);
+        } catch (IOException excp) {
+            throw error("Cannot compute delta: %s", excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * apply a delta to its base.
+     * @param base byte array of the base contents.
+     * @param in InputStream of encoded operations.
+     * @param length int of number of bytes of the target.
+     * @return byte array of the target contents.
+     * */
+    public static byte[] apply(byte[] base, InputStream in, int length) throws IOException {
+        byte[] target = new byte[length];
+        int pos = 0;
+        DataInputStream ops = new DataInputStream(in);
+        while (true) {
+            int op;
+            try {
+                op = ops.readUnsignedByte();
+            } catch (EOFException excp) {
+                break;
+            }
+            if (op == COPY) {
+                int start = ops.readInt();
+                int n = ops.readInt();
+                System.arraycopy(base, start, target, pos, n);
+                pos += n;
+            } else if (op == INSERT) {
+                int n = ops.readInt();
+                ops.readFully(target, pos, n);
+                pos += n;
+            } else {
+                throw new IOException("unknown delta operation " + op);
+            }
+        }
+        if (pos != length) {
+            throw new IOException("delta rebuilt " + pos + " of " + length + " bytes");
+        }
+        return target;
+    }
+
+    /** private HELP method. */
+
+    /** @return int of the hash of BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /** @return int of the number of equal bytes of BASE and TARGET from the given offsets. */
+    private static int matchLength(byte[] base, int start, byte[] target, int pos) {
+        int n = 0;
+        while (start + n < base.length && pos + n < target.length
+                && base[start + n] == target[pos + n]) {
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Write bytes FROM to TO of TARGET as an INSERT operation, if there are any. */
+    private static void writeInsert(DataOutputStream out, byte[] target,
+                                    int from, int to) throws IOException {
+        if (to > from) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Represents the line diff engine of gitlet.
+ * @author ASmellyCat
+ * Files are split into lines, and every distinct line is given a small int,
+ * so the diff compares ints instead of bytes. Changes are found by
+ * 1. marking lines that occur in only one file, since they can never match,
+ * 2. stripping the common prefix and suffix of what is left,
+ * 3. Myers' linear-space algorithm: find the middle snake of the shortest
+ *    edit script, then recurse on both halves.
+ *
+ * It takes O((N + M) * D) time and O(N + M) space for files of N and M lines
+ * that differ by D lines. The same changes give unified hunks for diff
+ * and line-level conflict hunks for merge.
+ */
+public class Diff {
+    /** Lines of context around each hunk. */
+    private static final int CONTEXT = 3;
+    /** Bytes searched for a zero byte to tell a binary file. */
+    private static final int BINARY_PROBE = 8000;
+    /** Markers of a conflict hunk. */
+    private static final byte[] START = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MIDDLE = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Represents the result of merging two versions of a file. */
+    public static class Merged {
+        /** Contents of the merged file. */
+        private final byte[] contents;
+        /** Whether the contents have conflict hunks. */
+        private final boolean conflict;
+
+        Merged(byte[] c, boolean con) {
+            contents = c;
+            conflict = con;
+        }
+
+        /** @return byte array of the merged contents. */
+        public byte[] getContents() {
+            return contents;
+        }
+
+        /** @return boolean of whether the contents have conflict hunks. */
+        public boolean hasConflict() {
+            return conflict;
+        }
+    }
+
+    /**
+     * find the lines changed between two files of line ids.
+     * @param a int array of line ids of the old file.
+     * @param b int array of line ids of the new file.
+     * @return two boolean arrays, marking removed lines of A and added lines of B.
+     */
+    public static boolean[][] changes(int[] a, int[] b) {
+        boolean[] removed = new boolean[a.length];
+        boolean[] added = new boolean[b.length];
+        int maxID = 0;
+        for (int id : a) {
+            maxID = Math.max(maxID, id);
+        }
+        for (int id : b) {
+            maxID = Math.max(maxID, id);
+        }
+        boolean[] inA = new boolean[maxID + 1];
+        boolean[] inB = new boolean[maxID + 1];
+        for (int id : a) {
+            inA[id] = true;
+        }
+        for (int id : b) {
+            inB[id] = true;
+        }
+        int[] keptA = keep(a, inB, removed);
+        int[] keptB = keep(b, inA, added);
+        int[] ca = new int[keptA.length];
+        int[] cb = new int[keptB.length];
+        for (int i = 0; i < ca.length; i += 1) {
+            ca[i] = a[keptA[i]];
+        }
+        for (int j = 0; j < cb.length; j += 1) {
+            cb[j] = b[keptB[j]];
+        }
+        boolean[] cRemoved = new boolean[ca.length];
+        boolean[] cAdded = new boolean[cb.length];
+        compare(ca, 0, ca.length, cb, 0, cb.length, cRemoved, cAdded);
+        for (int i = 0; i < ca.length; i += 1) {
+            removed[keptA[i]] = cRemoved[i];
+        }
+        for (int j = 0; j < cb.length; j += 1) {
+            added[keptB[j]] = cAdded[j];
+        }
+        return new boolean[][]{removed, added};
+    }
+
+    /**
+     * Make the unified diff of two versions of a file.
+     * @param oldName String of name of the old version, like a/wug.txt or /dev/null.
+     * @param newName String of name of the new version.
+     * @param a byte array of the old contents.
+     * @param b byte array of the new contents.
+     * @return String of the header and hunks, or an empty string if they are equal.
+     */
+    public static String unified(String oldName, String newName, byte[] a, byte[] b) {
+        if (Arrays.equals(a, b)) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder();
+        out.append("--- ").append(oldName).append("\n");
+        out.append("+++ ").append(newName).append("\n");
+        if (isBinary(a) || isBinary(b)) {
+            return out.append("Binary files differ\n").toString();
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        Lines la = new Lines(a, ids);
+        Lines lb = new Lines(b, ids);
+        boolean[][] changed = changes(la.ids, lb.ids);
+        List<int[]> blocks = blocks(changed[0], changed[1]);
+        int first = 0;
+        while (first < blocks.size()) {
+            int last = first;
+            while (last + 1 < blocks.size()
+                    && blocks.get(last + 1)[0] - blocks.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            appendHunk(out, la, lb, blocks.subList(first, last + 1));
+            first = last + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Merge two versions of a file line by line against their common base.
+     * Regions changed on one side only take that side; regions changed
+     * differently on both sides become conflict hunks.
+     * @param base byte array of the split point version.
+     * @param head byte array of the current branch version.
+     * @param other byte array of the given branch version.
+     * @return Merged contents.
+     */
+    public static Merged merge(byte[] base, byte[] head, byte[] other) {
+        Map<String, Integer> ids = new HashMap<>();
+        Lines lo = new Lines(base, ids);
+        Lines la = new Lines(head, ids);
+        Lines lb = new Lines(other, ids);
+        int[] toA = matches(lo, la);
+        int[] toB = matches(lo, lb);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflict = false;
+        int o = 0;
+        int x = 0;
+        int y = 0;
+        int n = lo.size();
+        while (o < n || x < la.size() || y < lb.size()) {
+            int stable = 0;
+            while (o + stable < n && toA[o + stable] == x + stable
+                    && toB[o + stable] == y + stable) {
+                stable += 1;
+            }
+            if (stable > 0) {
+                lo.write(out, o, o + stable);
+                o += stable;
+                x += stable;
+                y += stable;
+                continue;
+            }
+            int next = o;
+            while (next < n && (toA[next] < 0 || toB[next] < 0)) {
+                next += 1;
+            }
+            int xEnd = next < n ? toA[next] : la.size();
+            int yEnd = next < n ? toB[next] : lb.size();
+            if (lo.sameLines(o, next, la, x, xEnd)) {
+                lb.write(out, y, yEnd);
+            } else if (lo.sameLines(o, next, lb, y, yEnd) || la.sameLines(x, xEnd, lb, y, yEnd)) {
+                la.write(out, x, xEnd);
+            } else {
+                out.writeBytes(START);
+                la.write(out, x, xEnd);
+                out.writeBytes(MIDDLE);
+                lb.write(out, y, yEnd);
+                out.writeBytes(END);
+                conflict = true;
+            }
+            o = next;
+            x = xEnd;
+            y = yEnd;
+        }
+        return new Merged(out.toByteArray(), conflict);
+    }
+
+    /**
+     * Make one conflict hunk holding both versions of a whole file.
+     * @return byte array of the conflicted file.
+     */
+    public static byte[] conflict(byte[] head, byte[] other) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(START);
+        out.writeBytes(head);
+        out.writeBytes(MIDDLE);
+        out.writeBytes(other);
+        out.writeBytes(END);
+        return out.toByteArray();
+    }
+
+    /** private HELP method. */
+
+    /** Represents the lines of a file, as byte ranges and interned line ids. */
+    private static class Lines {
+        /** Contents of the file. */
+        private final byte[] data;
+        /** Start of each line, followed by the length of the file. */
+        private final int[] starts;
+        /** Line id of each line. */
+        private final int[] ids;
+
+        Lines(byte[] d, Map<String, Integer> interned) {
+            data = d;
+            int count = 0;
+            for (int i = 0; i < d.length; i += 1) {
+                if (d[i] == '\n' || i == d.length - 1) {
+                    count += 1;
+                }
+            }
+            starts = new int[count + 1];
+            ids = new int[count];
+            int line = 0;
+            for (int i = 0; i < d.length; i += 1) {
+                if (d[i] == '\n' || i == d.length - 1) {
+                    starts[line + 1] = i + 1;
+                    line += 1;
+                }
+            }
+            for (int i = 0; i < count; i += 1) {
+                String key = new String(d, starts[i], starts[i + 1] - starts[i],
+                        StandardCharsets.ISO_8859_1);
+                Integer id = interned.putIfAbsent(key, interned.size());
+                ids[i] = id == null ? interned.size() - 1 : id;
+            }
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /** Write lines FROM to TO. */
+        void write(ByteArrayOutputStream out, int from, int to) {
+            out.write(data, starts[from], starts[to] - starts[from]);
+        }
+
+        /** @return boolean of whether lines FROM to TO equal lines OFROM to OTO of OTHER. */
+        boolean sameLines(int from, int to, Lines other, int oFrom, int oTo) {
+            return Arrays.equals(ids, from, to, other.ids, oFrom, oTo);
+        }
+
+        /** Append line I with a prefix, noting a missing newline at the end of file. */
+        void appendLine(StringBuilder out, char prefix, int i) {
+            out.append(prefix);
+            out.append(new String(data, starts[i], starts[i + 1] - starts[i],
+                    StandardCharsets.UTF_8));
+            if (data[starts[i + 1] - 1] != '\n') {
+                out.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /**
+     * Collect the indexes of lines of A whose ids occur in the other file,
+     * and mark the others as changed.
+     * @return int array of kept indexes.
+     */
+    private static int[] keep(int[] a, boolean[] inOther, boolean[] changed) {
+        int[] kept = new int[a.length];
+        int n = 0;
+        for (int i = 0; i < a.length; i += 1) {
+            if (inOther[a[i]]) {
+                kept[n] = i;
+                n += 1;
+            } else {
+                changed[i] = true;
+            }
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    /** Mark the changed lines between A[ALO, AHI) and B[BLO, BHI). */
+    private static void compare(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                boolean[] removed, boolean[] added) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi) {
+            Arrays.fill(added, bLo, bHi, true);
+        } else if (bLo == bHi) {
+            Arrays.fill(removed, aLo, aHi, true);
+        } else {
+            int[] split = middleSnake(a, aLo, aHi, b, bLo, bHi);
+            if (split == null) {
+                Arrays.fill(removed, aLo, aHi, true);
+                Arrays.fill(added, bLo, bHi, true);
+                return;
+            }
+            compare(a, aLo, aLo + split[0], b, bLo, bLo + split[1], removed, added);
+            compare(a, aLo + split[0], aHi, b, bLo + split[1], bHi, removed, added);
+        }
+    }
+
+    /**
+     * Walk the edit graph forwards from the start and backwards from the end
+     * at the same time, until the two paths overlap.
+     * @return int array of the offsets in A and B of a point on a shortest edit
+     *         script, or null if the ranges have no line in common.
+     */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = delta % 2 != 0;
+        int fStart = 0;
+        int fEnd = 0;
+        int bStart = 0;
+        int bEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int kOffset = offset + k;
+                int x;
+                if (k == -d || (k != d && forward[kOffset - 1] < forward[kOffset + 1])) {
+                    x = forward[kOffset + 1];
+                } else {
+                    x = forward[kOffset - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[kOffset] = x;
+                if (x > n) {
+                    fEnd += 2;
+                } else if (y > m) {
+                    fStart += 2;
+                } else if (front) {
+                    int other = offset + delta - k;
+                    if (other >= 0 && other < length && backward[other] != -1
+                            && x >= n - backward[other]) {
+                        return new int[]{x, y};
+                    }
+                }
+            }
+            for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                int kOffset = offset + k;
+                int x;
+                if (k == -d || (k != d && backward[kOffset - 1] < backward[kOffset + 1])) {
+                    x = backward[kOffset + 1];
+                } else {
+                    x = backward[kOffset - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[kOffset] = x;
+                if (x > n) {
+                    bEnd += 2;
+                } else if (y > m) {
+                    bStart += 2;
+                } else if (!front) {
+                    int other = offset + delta - k;
+                    if (other >= 0 && other < length && forward[other] != -1) {
+                        int fx = forward[other];
+                        int fy = fx - (other - offset);
+                        if (fx >= n - x) {
+                            return new int[]{fx, fy};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return List of change blocks {aStart, aEnd, bStart, bEnd} of maximal runs of changes. */
+    private static List<int[]> blocks(boolean[] removed, boolean[] added) {
+        List<int[]> blocks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < removed.length || j < added.length) {
+            if ((i < removed.length && removed[i]) || (j < added.length && added[j])) {
+                int aStart = i;
+                int bStart = j;
+                while (i < removed.length && removed[i]) {
+                    i += 1;
+                }
+                while (j < added.length && added[j]) {
+                    j += 1;
+                }
+                blocks.add(new int[]{aStart, i, bStart, j});
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+        return blocks;
+    }
+
+    /** @return int array mapping each line of FROM to its matched line of TO, or -1. */
+    private static int[] matches(Lines from, Lines to) {
+        boolean[][] changed = changes(from.ids, to.ids);
+        int[] match = new int[from.size()];
+        int j = 0;
+        for (int i = 0; i < from.size(); i += 1) {
+            while (j < to.size() && changed[1][j]) {
+                j += 1;
+            }
+            if (changed[0][i]) {
+                match[i] = -1;
+            } else {
+                match[i] = j;
+                j += 1;
+            }
+        }
+        return match;
+    }
+
+    /** Append one hunk covering the given change blocks, with context around them. */
+    private static void appendHunk(StringBuilder out, Lines a, Lines b, List<int[]> group) {
+        int[] first = group.get(0);
+        int[] last = group.get(group.size() - 1);
+        int aFrom = Math.max(0, first[0] - CONTEXT);
+        int bFrom = first[2] - (first[0] - aFrom);
+        int aTo = Math.min(a.size(), last[1] + CONTEXT);
+        int bTo = last[3] + (aTo - last[1]);
+        out.append("@@ -").append(range(aFrom, aTo - aFrom))
+                .append(" +").append(range(bFrom, bTo - bFrom)).append(" @@\n");
+        int i = aFrom;
+        for (int[] block : group) {
+            for (; i < block[0]; i += 1) {
+                a.appendLine(out, ' ', i);
+            }
+            for (; i < block[1]; i += 1) {
+                a.appendLine(out, '-', i);
+            }
+            for (int j = block[2]; j < block[3]; j += 1) {
+                b.appendLine(out, '+', j);
+            }
+        }
+        for (; i < aTo; i += 1) {
+            a.appendLine(out, ' ', i);
+        }
+    }
+
+    /** @return String of a hunk range in unified format. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** @return boolean of whether contents look binary. */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 
 /** A debugging class whose main program may be invoked as follows:
  *      java gitlet.DumpObj FILE...
@@ -24,7 +25,8 @@ import java.io.File;
  *        }
  *
  *  As illustrated, your dump method should print useful information from
- *  objects of your class.
+ *  objects of your class.  Commit objects, which are stored as text rather
+ *  than serialized, are decoded by Commit.decode instead.
  *  @author P. N. Hilfinger
  */
 public class DumpObj {
@@ -33,8 +35,16 @@ public class DumpObj {
      *  in FILES. */
     public static void main(String... files) {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
-                                            Dumpable.class);
+            File file = new File(fileName);
+            byte[] contents = Utils.readContents(file);
+            Dumpable obj;
+            if (new String(contents, StandardCharsets.UTF_8)
+                    .startsWith(Commit.HEADER)) {
+                obj = Commit.decode(file.getParentFile().getName()
+                                    + file.getName(), contents);
+            } else {
+                obj = Utils.readObject(file, Dumpable.class);
+            }
             obj.dump();
             System.out.println("---");
         }
@@ -0,0 +1,104 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**Represents the stat data of a working file, cached in the index.
+ * @author ASmellyCat
+ * a file stat contains:
+ * 1. size, modification time and file key of the working file
+ * 2. the time the stat data was taken
+ * 3. the blob SHA-1 ID the file had at that time
+ *
+ * If a working file still has the same size, modification time and file key,
+ * its cached blob ID can be trusted without reading the file again.
+ */
+public class FileStat {
+    /** Files modified this close to the time they were recorded are rehashed,
+     *  because another change in the same clock tick would keep the same stat. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** size of the file in bytes. */
+    private final long size;
+    /** modification time of the file in nanoseconds. */
+    private final long modified;
+    /** file key (device and inode) of the file, or empty if unsupported. */
+    private final String fileKey;
+    /** time the stat data was taken, in nanoseconds since the epoch. */
+    private final long recorded;
+    /** SHA-1 ID of the blob of the file. */
+    private final String blobID;
+
+    /** Creates a file stat with the specified parameters. */
+    public FileStat(long s, long m, String k, long r, String id) {
+        size = s;
+        modified = m;
+        fileKey = k;
+        recorded = r;
+        blobID = id;
+    }
+
+    /**
+     * read the stat data of a working file.
+     * @param file File of the working file.
+     * @param id String of SHA-1 ID of the file contents.
+     * @return FileStat of the file, or null if it does not exist.
+     */
+    public static FileStat of(File file, String id) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        Trace.statted();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            Object key = attributes.fileKey();
+            return new FileStat(attributes.size(),
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    key == null ? "" : key.toString(), now, id);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** @return String of SHA-1 ID of the blob of the file. */
+    public String getBlobID() {
+        return blobID;
+    }
+
+    /** @return a copy of this stat with a given blob SHA-1 ID. */
+    public FileStat withBlobID(String id) {
+        return new FileStat(size, modified, fileKey, recorded, id);
+    }
+
+    /**
+     * Judge whether the cached blob ID can still be used for a working file.
+     * @param current FileStat just read from the working file.
+     * @return boolean of whether the file is unchanged since this stat was taken.
+     */
+    public boolean matches(FileStat current) {
+        return current != null && size == current.size && modified == current.modified
+                && fileKey.equals(current.fileKey) && modified + RACY_NANOS < recorded;
+    }
+
+    /** @return long of size of the file in bytes. */
+    public long getSize() {
+        return size;
+    }
+
+    /** @return long of modification time of the file in nanoseconds. */
+    public long getModified() {
+        return modified;
+    }
+
+    /** @return String of file key of the file. */
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    /** @return long of the time the stat data was taken, in nanoseconds. */
+    public long getRecorded() {
+        return recorded;
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.HelpMethod.*;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Represents the garbage collection of a gitlet directory.
+ * @author ASmellyCat
+ * Objects are kept if they are reachable from:
+ * 1. every branch in refs/heads and every remote branch in refs/remote,
+ * 2. the index, so staged files and the tree of tracked files survive.
+ * A commit named only by a reflog is not kept.
+ *
+ * The mark phase walks parents in the commit graph, which needs no object
+ * reads, then reads the reachable commits and trees on the common pool,
+ * and finally follows the delta base of every live blob. The sweep drops
+ * unreachable records from the commit graph, deletes unreachable loose
+ * objects, and rewrites the pack without its unreachable objects.
+ * Last, every ref is moved into packed-refs.
+ */
+public class GarbageCollector {
+    /** Temp files older than this were left by a crash, not by a running command. */
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** Set of SHA-1 IDs of every live object. */
+    private final Set<String> live = ConcurrentHashMap.newKeySet();
+    /** Set of SHA-1 IDs of live blobs named by a tree or the index. */
+    private final Set<String> blobs = ConcurrentHashMap.newKeySet();
+    /** Record indexes of reachable commits in the commit graph. */
+    private final BitSet commits = new BitSet();
+    /** Number of objects removed. */
+    private int removed;
+    /** Number of bytes reclaimed. */
+    private long reclaimed;
+
+    /**
+     * gc
+     * Remove every object that is not reachable, and report what was reclaimed.
+     */
+    public static void collect() {
+        GarbageCollector collector = new GarbageCollector();
+        long start = Trace.start();
+        collector.mark();
+        Trace.phase("mark", start);
+        start = Trace.start();
+        collector.sweep();
+        HelpMethod.clearCommitCache();
+        Trace.phase("sweep", start);
+        start = Trace.start();
+        Refs.of(GITLET_DIR).pack();
+        Trace.phase("pack refs", start);
+        System.out.println("Removed " + collector.removed + " unreachable objects, reclaimed "
+                + collector.reclaimed + " bytes.");
+    }
+
+    /** private HELP method. */
+
+    /** Mark all commits, trees and blobs reachable from refs and the index. */
+    private void mark() {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (String id : refs()) {
+            int i = graph.indexOf(id);
+            if (i == CommitGraph.NONE) {
+                throw error("Commit %s of a ref is missing from the commit graph.", id);
+            }
+            stack.push(i);
+        }
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            if (commits.get(i)) {
+                continue;
+            }
+            commits.set(i);
+            for (int parent : new int[]{graph.parent(i), graph.secondParent(i)}) {
+                if (parent != CommitGraph.NONE && !commits.get(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        blobs.addAll(getStagingArea().getIndexedFiles().values());
+        if (getStagingArea().getTreeID() != null) {
+            markTree(getStagingArea().getTreeID());
+        }
+        commits.stream().parallel().forEach(i -> {
+            String id = graph.id(i);
+            live.add(id);
+            markTree(Commit.read(id, OBJECT_DIR).getTreeID());
+        });
+        live.addAll(blobs);
+        blobs.parallelStream().forEach(id -> {
+            String base = Blob.deltaBaseID(id, OBJECT_DIR);
+            while (base != null && live.add(base)) {
+                base = Blob.deltaBaseID(base, OBJECT_DIR);
+            }
+        });
+    }
+
+    /** Mark a tree and everything under it, unless it is already marked.
+     *  A subtree shared by many commits is read once. */
+    private void markTree(String id) {
+        if (!live.add(id)) {
+            return;
+        }
+        Tree tree = Tree.read(id, OBJECT_DIR);
+        blobs.addAll(tree.getBlobs().values());
+        for (String subtreeID : tree.getTrees().values()) {
+            markTree(subtreeID);
+        }
+    }
+
+    /** @return List of commit SHA-1 IDs of all local and remote branches. */
+    private static List<String> refs() {
+        return new ArrayList<>(Refs.of(GITLET_DIR).all().values());
+    }
+
+    /** Drop unreachable commits from the graph, then unreachable objects from the store. */
+    private void sweep() {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        graph.retain(commits);
+        for (Map.Entry<String, File> entry : looseObjects(OBJECT_DIR).entrySet()) {
+            if (!live.contains(entry.getKey())) {
+                delete(entry.getValue());
+            }
+        }
+        Pack pack = Pack.of(OBJECT_DIR);
+        int packed = pack.size();
+        reclaimed += pack.retain(live);
+        removed += packed - pack.size();
+        File[] fanouts = OBJECT_DIR.listFiles(file -> file.isDirectory()
+                && file.getName().length() == 2);
+        long now = System.currentTimeMillis();
+        for (File fanout : fanouts == null ? new File[0] : fanouts) {
+            File[] temps = fanout.listFiles(file -> file.getName().startsWith(".")
+                    && file.getName().endsWith(".tmp")
+                    && now - file.lastModified() > STALE_TEMP_MILLIS);
+            for (File temp : temps == null ? new File[0] : temps) {
+                reclaimed += temp.length();
+                temp.delete();
+            }
+            fanout.delete();
+        }
+    }
+
+    /** Delete an unreachable loose object and count it. */
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            removed += 1;
+            reclaimed += length;
+        }
+    }
+}
@@ -4,8 +4,19 @@ package gitlet;
  *  @author ASmellyCat
  */
 import static gitlet.Utils.*;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
 import java.util.*;
 
 import static gitlet.Repository.*;
@@ -16,6 +27,25 @@ import static gitlet.MyUtils.*;
  * */
 
 public class HelpMethod implements Serializable {
+    /** Least number of digits printed for an abbreviated SHA-1 ID. */
+    static final int ABBREV_LENGTH = 7;
+    /** Number of decoded commits kept in memory. */
+    private static final int COMMIT_CACHE_SIZE = 1024;
+    /** Recently decoded commits of OBJECT_DIR, least recently used first, with full
+     *  SHA-1 ID as key. Only this repository's commits are kept, so a hit always
+     *  means the commit is in OBJECT_DIR; reads are locked, as a hit reorders the map. */
+    private static final Map<String, Commit> COMMIT_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > COMMIT_CACHE_SIZE;
+                }
+            });
+
+    /** Forget every decoded commit, once gc or repack may have moved or removed them. */
+    static void clearCommitCache() {
+        COMMIT_CACHE.clear();
+    }
 
     /** Judge whether gitlet repository exist, and quit with a message if not. */
     public static void gitletRepoExists() {
@@ -28,7 +58,7 @@ public class HelpMethod implements Serializable {
      * @return String of current commit SHA-1 ID
      * */
     public static String getCurrentCommitID() {
-        return readContentsAsString(getActiveBranchFile());
+        return Refs.of(GITLET_DIR).headID();
     }
     /** get commit from OBJECT file. */
     public static Commit getCommit(String id) {
@@ -38,167 +68,248 @@ public class HelpMethod implements Serializable {
         if (id == null) {
             return null;
         }
-        File file = objectFile(id, firDir);
-        if (file.length() == 0) {
+        if (!firDir.equals(OBJECT_DIR)) {
+            Commit commit = readFullCommit(id, firDir);
+            return commit != null ? commit : Commit.read(fullCommitID(id, firDir), firDir);
+        }
+        Commit commit = COMMIT_CACHE.get(id);
+        if (commit != null) {
+            return commit;
+        }
+        commit = readFullCommit(id, firDir);
+        if (commit != null) {
+            COMMIT_CACHE.put(id, commit);
+            return commit;
+        }
+        String fullID = fullCommitID(id, firDir);
+        commit = COMMIT_CACHE.get(fullID);
+        if (commit == null) {
+            commit = Commit.read(fullID, firDir);
+            COMMIT_CACHE.put(fullID, commit);
+        }
+        return commit;
+    }
+
+    /**
+     * read a commit named by a full SHA-1 ID without scanning for other IDs,
+     * checking only that its loose file exists or that the pack contains it.
+     * @return Commit, or null if ID is abbreviated or names no stored object.
+     */
+    private static Commit readFullCommit(String id, File objectDir) {
+        if (id.length() != UID_LENGTH || !id.matches("[0-9a-f]+")
+                || !objectFile(id, objectDir).isFile() && !Pack.of(objectDir).contains(id)) {
+            return null;
+        }
+        byte[] bytes;
+        try (InputStream in = openObject(id, objectDir)) {
+            bytes = in.readAllBytes();
+        } catch (IOException excp) {
+            throw error("Cannot read commit %s: %s", id, excp.getMessage());
+        }
+        if (!new String(bytes, 0, Math.min(bytes.length, Commit.HEADER.length()),
+                StandardCharsets.UTF_8).equals(Commit.HEADER)) {
             exit("No commit with that id exists.");
         }
-        return readObject(file, Commit.class);
+        return Commit.decode(id, bytes);
     }
     /**
      * @param branchName String of a given branch name.
      * @return Commit of a given branch name. */
     public static String getCommitIDByBranchName(String branchName) {
-        return getCommitIDByBranchName(correctBranchName(branchName), correctBranchDir(branchName));
-    }
-    public static String getCommitIDByBranchName(String branchName, File fileDir) {
-        File file = join(fileDir, branchName);
-        return readContentsAsString(file);
-    }
-    /** get all commits and save it into a Set*/
-    public static Set<Commit> getAllCommits() {
-        Set<Commit> commitsSet = new HashSet<>();
-        String commitsID = readContentsAsString(COMMITS);
-        return getAllCommitsHelp(commitsSet, commitsID);
+        return Refs.of(GITLET_DIR).read(refName(branchName));
     }
-    /** Using recursive method to get all the commits*/
-    private static Set<Commit> getAllCommitsHelp(Set<Commit> commitsSet, String commitsID) {
-        if (!commitsID.isEmpty()) {
-            commitsSet.add(getCommit(commitsID.substring(0, 40), OBJECT_DIR));
-            return getAllCommitsHelp(commitsSet, commitsID.substring(40));
+    /**
+     * get the commits reachable from a tip in one gitlet directory that another lacks,
+     * walking back from the tip and stopping at every commit the other already has.
+     * @param id String of SHA-1 ID of the tip commit.
+     * @param fromDir File of gitlet directory that has the commits.
+     * @param toDir File of gitlet directory that may lack them.
+     * @return List of record indexes in the commit graph of FROMDIR, parents first.
+     * */
+    public static List<Integer> missingCommits(String id, File fromDir, File toDir) {
+        CommitGraph from = CommitGraph.of(fromDir);
+        CommitGraph to = CommitGraph.of(toDir);
+        boolean[] missing = new boolean[from.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(from.indexOf(id));
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            if (i == CommitGraph.NONE || missing[i] || to.contains(from.id(i))) {
+                continue;
+            }
+            missing[i] = true;
+            stack.push(from.parent(i));
+            stack.push(from.secondParent(i));
         }
-        return commitsSet;
-    }
-    /** get all parent commits of a given commit. */
-    public static Set<Commit> getAllParentCommits(String id) {
-        return getAllParentCommits(id, OBJECT_DIR);
-    }
-    public static Set<Commit> getAllParentCommits(String id, File fireDir) {
-        Commit commit = getCommit(id, fireDir);
-        Set<Commit> commitsSet = new HashSet<>();
-        while (commit.getParentID() != null) {
-            commitsSet.add(commit);
-            commit = getCommit(commit.getParentID(), fireDir);
+        List<Integer> commits = new ArrayList<>();
+        for (int i = 0; i < missing.length; i += 1) {
+            if (missing[i]) {
+                commits.add(i);
+            }
         }
-        commitsSet.add(commit);
-        return commitsSet;
+        return commits;
     }
 
-    public static Set<String> getAllParentCommitsID(String id) {
-        return getAllParentCommitsID(id, OBJECT_DIR);
-    }
-    public static Set<String> getAllParentCommitsID(String id, File fireDir) {
-        Commit commit = getCommit(id, fireDir);
-        Set<String> commitsSet = new HashSet<>();
-        while (commit.getParentID() != null) {
-            commitsSet.add(commit.getCommitID());
-            commit = getCommit(commit.getParentID(), fireDir);
+    /**
+     * copy the commits reachable from a tip that another gitlet directory lacks,
+     * with the trees and blobs their parents do not have and their commit graph records.
+     * Objects the other directory already has are never read.
+     * @param id String of SHA-1 ID of the tip commit.
+     * @param fromDir File of gitlet directory that has the commits.
+     * @param toDir File of gitlet directory that needs the commits.
+     * @return int of number of objects copied.
+     * */
+    public static int copyMissingCommits(String id, File fromDir, File toDir) {
+        File fromObjects = join(fromDir, OBJECT_DIR.getName());
+        File toObjects = join(toDir, OBJECT_DIR.getName());
+        CommitGraph from = CommitGraph.of(fromDir);
+        CommitGraph to = CommitGraph.of(toDir);
+        long start = Trace.start();
+        List<Integer> commits = missingCommits(id, fromDir, toDir);
+        Trace.phase("missing commits", start);
+        start = Trace.start();
+        int copied = 0;
+        for (int i : commits) {
+            String commitID = from.id(i);
+            List<String> parentTreeIDs = new ArrayList<>();
+            for (int parent : new int[]{from.parent(i), from.secondParent(i)}) {
+                if (parent != CommitGraph.NONE) {
+                    parentTreeIDs.add(getCommit(from.id(parent), fromObjects).getTreeID());
+                }
+            }
+            Set<String> objectIDs = new LinkedHashSet<>();
+            Tree.newObjects(getCommit(commitID, fromObjects).getTreeID(), parentTreeIDs,
+                    fromObjects, objectIDs);
+            for (String objectID : objectIDs) {
+                copied += copyObject(objectID, fromObjects, toObjects) ? 1 : 0;
+            }
+            copied += copyObject(commitID, fromObjects, toObjects) ? 1 : 0;
+        }
+        Trace.phase("copy objects", start);
+        WriteBatch.publish();
+        for (int i : commits) {
+            int p = from.parent(i);
+            int p2 = from.secondParent(i);
+            to.append(from.id(i), p == CommitGraph.NONE ? null : from.id(p),
+                    p2 == CommitGraph.NONE ? null : from.id(p2),
+                    from.time(i), from.message(i));
         }
-        commitsSet.add(commit.getCommitID());
-        return commitsSet;
+        return copied;
     }
 
     /** reset a commit files.
+     * The files that differ between the tracked files and the tree of the given
+     * commit are written or deleted, and subtrees the two share are never read.
+     * The diff starts from the tree the index names, or from trees of the tracked
+     * files hashed in memory if they changed since their commit.
+     * A file staged for addition or removal is also restored to its tracked version,
+     * and so is every other file of the commit whose working copy is missing or
+     * changed; the stat cache means only files whose stat data changed are rehashed.
+     * Untracked files in the way are checked before any file is written, then
+     * files are deleted and written in parallel on the common ForkJoin pool.
      * @param commitID String of a given commit SHA-1 ID */
     public static void resetACommit(String commitID) {
         StagingArea stageArea = getStagingArea();
         Commit commitGiven = getCommit(commitID, OBJECT_DIR);
-        Map<String, String> trackedGiven = commitGiven.getFiles();
-        List<String> trackedCurrent =  stageArea.getTrackedFiles();
-        for (Map.Entry<String, String> entry: trackedGiven.entrySet()) {
-            String filePath = entry.getKey();
-            Blob blob = getBlob(entry.getValue());
-            if (!trackedCurrent.contains(filePath)) {
-                if (join(filePath).length() != 0) {
-                    exit("There is an untracked file in the way; delete it, "
-                            + "or add and commit it first.");
-                }
+        long start = Trace.start();
+        Map<String, String> trackedCurrent = stageArea.getTrackedFileIDs();
+        Map<String, String> diff;
+        if (stageArea.getTreeID() != null) {
+            diff = Tree.diff(stageArea.getTreeID(), commitGiven.getTreeID(), OBJECT_DIR);
+        } else {
+            Map<String, String> names = new HashMap<>();
+            for (Map.Entry<String, String> entry : trackedCurrent.entrySet()) {
+                names.put(relativePath(entry.getKey()), entry.getValue());
             }
-            updateFileWithBlob(filePath, blob);
-            trackedCurrent.remove(filePath);
+            diff = Tree.diff(names, commitGiven.getTreeID(), OBJECT_DIR);
         }
-        for (String filePath : trackedCurrent) {
-            restrictedDelete(filePath);
+        Map<String, String> changes = new HashMap<>();
+        for (Map.Entry<String, String> entry : diff.entrySet()) {
+            changes.put(absolutePath(entry.getKey()), entry.getValue());
         }
-        stageArea.updateAllTracked(trackedGiven);
-    }
-    /**
-     * get a latest common ancestor of two branches.
-     * */
-    public static Commit getSplitCommit(Commit headCommit, Commit otherCommit) {
-        Comparator<Commit> commitComparator = Comparator.comparing(Commit::getDate).reversed();
-        Queue<Commit> commitsQueue = new PriorityQueue<>(commitComparator);
-        commitsQueue.add(headCommit);
-        commitsQueue.add(otherCommit);
-        Set<String> checkedCommitIDs = new HashSet<>();
-        Commit commitSmaller = smallerCommit(headCommit, otherCommit);
-        while (!commitsQueue.isEmpty()) {
-            Commit latestCommit = commitsQueue.poll();
-            String parentID = latestCommit.getParentID();
-            Commit parentCommit = getCommit(parentID, OBJECT_DIR);
-            if (checkedCommitIDs.contains(commitSmaller.getCommitID())) {
-                return commitSmaller;
+        Trace.phase("tree diff", start);
+        start = Trace.start();
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            String filePath = entry.getKey();
+            if (entry.getValue() != null && inTheWay(filePath, trackedCurrent)) {
+                exit("There is an untracked file in the way; delete it, "
+                        + "or add and commit it first.");
             }
-            if (checkedCommitIDs.contains(parentID)) {
-                return parentCommit;
+        }
+        List<String> staged = new ArrayList<>(stageArea.getStagedFiles());
+        staged.addAll(stageArea.getRemovedFiles());
+        for (String filePath : staged) {
+            if (!changes.containsKey(filePath) && trackedCurrent.containsKey(filePath)) {
+                changes.put(filePath, trackedCurrent.get(filePath));
             }
-            commitsQueue.add(parentCommit);
-            checkedCommitIDs.add(parentID);
-            String secondParentID = latestCommit.getSecondParentID();
-            Commit secondParentCommit = getCommit(secondParentID, OBJECT_DIR);
-            if (secondParentID != null) {
-                if (checkedCommitIDs.contains(secondParentID)) {
-                    return secondParentCommit;
-                }
-                commitsQueue.add(secondParentCommit);
-                checkedCommitIDs.add(secondParentID);
+        }
+        Map<String, String> unchanged = new HashMap<>(trackedCurrent);
+        unchanged.keySet().removeAll(changes.keySet());
+        for (String filePath : stageArea.getMismatchedFiles(unchanged)) {
+            changes.put(filePath, unchanged.get(filePath));
+        }
+        Trace.phase("check working files", start);
+        start = Trace.start();
+        changes.entrySet().parallelStream().filter(entry -> entry.getValue() == null)
+                .forEach(entry -> deleteWorkingFile(entry.getKey()));
+        changes.entrySet().parallelStream().filter(entry -> entry.getValue() != null)
+                .forEach(entry -> updateFileWithBlob(entry.getKey(), getBlob(entry.getValue())));
+        Trace.phase("write files", start);
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                trackedCurrent.remove(entry.getKey());
+            } else {
+                trackedCurrent.put(entry.getKey(), entry.getValue());
             }
         }
-        return null;
+        stageArea.updateTracked(trackedCurrent, commitGiven.getTreeID(),
+                new ArrayList<>(changes.keySet()));
     }
 
     /**
-     * Compare two commit.
-     * @return Commit of smaller one. */
-    public static Commit smallerCommit(Commit a, Commit b) {
-        Comparator<Commit> commitComparator = Comparator.comparing(Commit::getDate);
-        if (commitComparator.compare(a, b) < 0) {
-            return a;
+     * Judge whether an untracked working file would be overwritten by writing a file:
+     * the file itself, an untracked file under it if it is now a directory,
+     * or an untracked file where one of its directories has to go.
+     * @param filePath String of absolute path of the file to write.
+     * @param tracked Map of tracked files with filepath as key.
+     */
+    private static boolean inTheWay(String filePath, Map<String, String> tracked) {
+        File file = join(filePath);
+        if (file.isDirectory()) {
+            return workingFiles(file).stream().anyMatch(path -> !tracked.containsKey(path));
+        } else if (!tracked.containsKey(filePath) && file.length() != 0) {
+            return true;
+        }
+        for (File dir = file.getParentFile(); dir != null && !dir.equals(CWD);
+                dir = dir.getParentFile()) {
+            if (dir.isFile()) {
+                return !tracked.containsKey(dir.getPath());
+            }
         }
-        return b;
+        return false;
     }
 
     /**
-     * to merge by comparing files in HEAD Commit, other Commit and Split Commit.
+     * get a latest common ancestor of two commits by walking the commit graph
+     * in generation number order.
+     * @return String of SHA-1 ID of the split commit, or null if there is none.
      * */
-    public static boolean toMerge(Map<String, String> splitTracked,
-                                  Map<String, String> headTracked,
-                                  Map<String, String> otherTracked) {
-        boolean flag = false;
-        Set<String> allFilePath = new HashSet<>();
-        allFilePath.addAll(splitTracked.keySet());
-        allFilePath.addAll(headTracked.keySet());
-        allFilePath.addAll(otherTracked.keySet());
-        for (String filePath : allFilePath) {
-            String splitID = splitTracked.get(filePath);
-            String headID = headTracked.get(filePath);
-            String otherID = otherTracked.get(filePath);
-            int action = check(splitID, headID, otherID);
-            //System.out.println(action.toString());
-            if (action == 1) { //Overwrite without alert because head is not empty.
-                overwriteMerge(filePath, otherTracked, action);
-            } else if (action == 2) { // Remove file from head.
-                removeMerge(filePath);
-            } else if (action == 3) { // overwrite with alert because head is empty.
-                overwriteMerge(filePath, otherTracked, action);
-            } else if (action == 4) { // Conflict. Add existing other content into existing head
-                flag = conflictMerge(filePath,  headTracked, otherTracked);
-            } else if (action == 5) { // Conflict. Add empty other content into existing head.
-                flag = conflictOtherEmpty(filePath,  headTracked);
-            } else if (action == 6) { // Conflict. Add existing other content into empty head.
-                flag = conflictHeadEmpty(filePath, otherTracked);
-            }
+    public static String getSplitCommitID(String headID, String otherID) {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        int base = graph.mergeBase(graph.indexOf(headID), graph.indexOf(otherID));
+        return base == CommitGraph.NONE ? null : graph.id(base);
+    }
+
+    /**
+     * get the full SHA-1 ID of a commit given a branch name or a commit ID.
+     * @param name String of a branch name, or a full or abbreviated commit ID.
+     * @return String of full SHA-1 ID of the commit.
+     * */
+    public static String resolveCommitID(String name) {
+        if (branchExists(name)) {
+            return getCommitIDByBranchName(name);
         }
-        return flag;
+        return getCommit(name).getCommitID();
     }
 
     /** check which situation need to be handled.
@@ -231,158 +342,163 @@ public class HelpMethod implements Serializable {
         return 0; // otherwise no change need to be added into HEAD.
     }
 
-    /** Conflict. Add existing other content into existing head. */
-    public static boolean conflictMerge(String filePath, Map<String, String> headMap,
-                                        Map<String, String> otherMap) {
-        Blob otherBlob = getBlob(otherMap.get(filePath));
-        Blob headBlob = getBlob(headMap.get(filePath));
-        updatedFileMerged(filePath, headBlob.getFileContents().toString(),
-                otherBlob.getFileContents().toString());
-        getStagingArea().add(join(filePath));
-        return true;
-    }
-
-    /** Conflict. Add empty other content into existing head. */
-    public static boolean conflictOtherEmpty(String filePath, Map<String, String> headMap) {
-        Blob headBlob = getBlob(headMap.get(filePath));
-        updatedFileMerged(filePath, headBlob.getFileContents().toString(), "");
-        getStagingArea().add(join(filePath));
-        return true;
-    }
-
-    /** Conflict. Add existing other content into empty head. */
-    public static boolean conflictHeadEmpty(String filePath, Map<String, String> otherMap) {
-        Blob headBlob = getBlob(otherMap.get(filePath));
-        updatedFileMerged(filePath, "", headBlob.getFileContents().toString());
-        getStagingArea().add(join(filePath));
-        return true;
-    }
-
-    /**
-     * Overwrite without alert because head is not empty.
-     * Check if there need to appear an alarm.
-     * */
-    public static void overwriteMerge(String filePath, Map<String, String> otherMap,
-                                      Integer action) {
-        Blob otherBlob = getBlob(otherMap.get(filePath));
-        if (action == 3 && getFileByName(filePath).length() != 0) {
-            exit("There is an untracked file in the way; delete it, or add and commit it first.");
-        }
-        updateFileWithBlob(filePath, otherBlob);
-        getStagingArea().add(join(filePath));
-    }
-
-    /** Remove file from HEAD. */
-    public static void removeMerge(String filePath) {
-        restrictedDelete(filePath);
-        getStagingArea().remove(filePath);
-    }
-
-
     /**
      * Change HEAD file that points to the active branch.
      * @param branchName String of the name of branch.
      * */
     public static void activateBranch(String branchName) {
-        writeContents(HEAD, "ref: "
-                + join(correctBranchDir(branchName),
-                correctBranchName(branchName)).getAbsolutePath());
+        Refs.of(GITLET_DIR).setHead(refName(branchName));
     }
 
-
     /**
-     * create a certain branch file.
-     * @param branchName String of the name of branch.
-     * @return File of branch pointer*/
-    public static File createBranchFile(String branchName) {
-        return createBranchFile(branchName, HEADS_DIR);
-    }
-    public static File createBranchFile(String branchName, File fileDir) {
-        return join(fileDir, branchName);
+     * Move the active branch to a commit, and record the move in its reflog.
+     * @param commitID String of SHA-1 ID of the commit.
+     * @param message String of the reason for the move.
+     * */
+    public static void moveActiveBranch(String commitID, String message) {
+        Refs refs = Refs.of(GITLET_DIR);
+        refs.update(refs.head(), commitID, message);
     }
-    /** Get active branch File.
-     * @return File of active branch.
-     */
-    public static File getActiveBranchFile() {
-        String activeBranchFilePath = readContentsAsString(HEAD).split(": ")[1].trim();
-        return join(activeBranchFilePath);
+
+    /** @return String of the name of active branch, like master or origin/master. */
+    public static String getActiveBranchName() {
+        return branchNameOf(Refs.of(GITLET_DIR).head());
     }
 
     /** check if the current active branch is the same as given branch. */
     public static boolean ifActiveBranch(String branchName) {
-        return getActiveBranchFile().getAbsolutePath().equals(join(correctBranchDir(branchName),
-                correctBranchName(branchName)).getAbsolutePath());
-    }
-
-    /**
-     * get a branch file given a branch name
-     * @param branchName the branch name
-     * @return File of the branch file in heads provided a branch name.
-     * */
-    public static File getBranchFile(String branchName) {
-        return getBranchFile(branchName, HEADS_DIR);
-    }
-    public static File getBranchFile(String branchName, File fileDir) {
-        return join(fileDir, branchName);
+        return refName(branchName).equals(Refs.of(GITLET_DIR).head());
     }
 
-    /** @return boolean of whether a branch has created. */
+    /** @return boolean of whether a branch, or a remote branch like origin/master, exists. */
     public static boolean branchExists(String branchName) {
-        return branchExists(branchName, HEADS_DIR);
-    }
-    public static boolean branchExists(String branchName, File fileDir) {
-        List<String> branchNames = new ArrayList<>(plainFilenamesIn(fileDir));
-        if (!(branchNames.isEmpty())) {
-            return branchNames.contains(branchName);
-        }
-        return false;
+        return Refs.of(GITLET_DIR).exists(refName(branchName));
     }
 
-    /** find the correct branch file directory. */
-    public static File correctBranchDir(String branchName) {
+    /** @return String of the ref name of a branch, or of a remote branch like origin/master. */
+    public static String refName(String branchName) {
         if (branchName.contains("/")) {
-            String remoteName = branchName.split("/")[0];
-            return join(REMOTE_DIR, remoteName);
+            return Refs.REMOTES + "/" + branchName;
         }
-        return HEADS_DIR;
+        return Refs.HEADS + "/" + branchName;
     }
 
-    /**find the correct branch name. */
-    public static String correctBranchName(String branchName) {
-        if (branchName.contains("/")) {
-            return branchName.split("/")[1];
+    /** @return String of the branch name of a ref name. */
+    public static String branchNameOf(String ref) {
+        if (ref.startsWith(Refs.REMOTES + "/")) {
+            return ref.substring(Refs.REMOTES.length() + 1);
         }
-        return branchName;
+        return ref.substring(ref.lastIndexOf('/') + 1);
     }
-    /** Using recursive method to print log. */
-    public static void printLog(Commit commit) {
-        if (commit != null) {
-            printOneLog(commit);
-            printLog(getCommit(commit.getParentID()));
+    /**
+     * Print log by following first parents in the commit graph.
+     * The walk is a loop over graph records, so it starts printing at once
+     * and never deepens the stack, however long the history is.
+     * @param commitID String of SHA-1 ID of the commit to start from.
+     * @param limit int of maximum number of commits to print, or -1 for all.
+     * @param since long of timestamp in milliseconds; the walk stops at the first older commit.
+     * @param until long of timestamp in milliseconds; newer commits are skipped.
+     */
+    public static void printLog(String commitID, int limit, long since, long until) {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        PrintWriter out = logWriter();
+        DateFormat format = Commit.timestampFormat();
+        int printed = 0;
+        for (int i = graph.indexOf(commitID); i != CommitGraph.NONE && printed != limit;
+             i = graph.parent(i)) {
+            long time = graph.time(i);
+            if (time < since) {
+                break;
+            }
+            if (time <= until) {
+                printOneLog(out, format, graph, i);
+                printed += 1;
+            }
         }
+        out.flush();
     }
-    /** Printed one commit in required format. */
-    public static void printOneLog(Commit commit) {
-        System.out.println("===");
-        System.out.println("commit " + commit.getCommitID());
-        System.out.println("Date: " + commit.getTimestamp());
-        System.out.println(commit.getMessage());
-        System.out.println();
+
+    /** @return PrintWriter of a large buffer over System.out, to be flushed by the caller. */
+    public static PrintWriter logWriter() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
     }
 
-    /** Get the branch names in a list. */
-    public static List<String> getBranchNames() {
-        return getBranchNames(HEADS_DIR);
+    /**
+     * Print the unified diff of every file that differs between two versions of the tree.
+     * @param from Map of the old version with filepath as key and blob SHA-1 ID as value.
+     * @param to Map of the new version with filepath as key and blob SHA-1 ID as value.
+     * @param toWorkingFiles boolean of whether the new contents are read from working files.
+     */
+    public static void printDiff(Map<String, String> from, Map<String, String> to,
+                                 boolean toWorkingFiles) {
+        long start = Trace.start();
+        Set<String> allFilePath = new TreeSet<>(from.keySet());
+        allFilePath.addAll(to.keySet());
+        PrintWriter out = logWriter();
+        for (String filePath : allFilePath) {
+            String fromID = from.get(filePath);
+            String toID = to.get(filePath);
+            if (Objects.equals(fromID, toID)) {
+                continue;
+            }
+            String name = relativePath(filePath);
+            byte[] oldContents = fromID == null ? new byte[0] : getBlob(fromID).getFileContents();
+            byte[] newContents = new byte[0];
+            if (toID != null) {
+                newContents = toWorkingFiles ? readContents(join(filePath))
+                        : getBlob(toID).getFileContents();
+            }
+            String hunks = Diff.unified(fromID == null ? "/dev/null" : "a/" + name,
+                    toID == null ? "/dev/null" : "b/" + name, oldContents, newContents);
+            if (!hunks.isEmpty()) {
+                out.println("diff a/" + name + " b/" + name);
+                out.print(hunks);
+            }
+        }
+        out.flush();
+        Trace.phase("diff", start);
+    }
+
+    /** Printed one commit of the commit graph in required format. */
+    public static void printOneLog(PrintWriter out, DateFormat format, CommitGraph graph, int i) {
+        out.println("===");
+        out.println("commit " + graph.id(i));
+        if (graph.secondParent(i) != CommitGraph.NONE) {
+            out.println("Merge: "
+                    + uniqueAbbreviation(graph.id(graph.parent(i)), OBJECT_DIR) + " "
+                    + uniqueAbbreviation(graph.id(graph.secondParent(i)), OBJECT_DIR));
+        }
+        out.println("Date: " + format.format(new Date(graph.time(i))));
+        out.println(graph.message(i));
+        out.println();
     }
-    public static List<String> getBranchNames(File fileDir) {
-        List<String> branchNames = new ArrayList<>(plainFilenamesIn(fileDir));
-        String activaBranchName = getActiveBranchFile().getName();
+
+    /** Get the branch names in a list, the active one first. */
+    public static List<String> getBranchNames() {
+        List<String> branchNames = new ArrayList<>();
+        for (String ref : Refs.of(GITLET_DIR).names(Refs.HEADS)) {
+            branchNames.add(branchNameOf(ref));
+        }
+        String activaBranchName = getActiveBranchName();
         branchNames.add(0, "*" + activaBranchName);
         branchNames.remove(activaBranchName);
         return branchNames;
     }
 
 
+    /**
+     * print how fast files were added.
+     * @param files List of File that were added.
+     * @param nanos long of time taken in nanoseconds.
+     */
+    public static void printThroughput(List<File> files, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        double megabytes = files.stream().mapToLong(File::length).sum() / (1024.0 * 1024.0);
+        System.out.printf("Added %d files (%.1f MB) in %.3f s: %.1f files/s, %.1f MB/s%n",
+                files.size(), megabytes, seconds, files.size() / seconds, megabytes / seconds);
+    }
+
     /** the format to print status. */
     public static void printStatusFormat(String outline, List<String> names) {
         System.out.print("=== ");
@@ -390,7 +506,7 @@ public class HelpMethod implements Serializable {
         System.out.println(" ===");
         if (names != null) {
             names.forEach(any -> {
-                System.out.println(getRelativeFileName(any));
+                System.out.println(new File(any).isAbsolute() ? relativePath(any) : any);
             });
         }
         System.out.println();
@@ -401,7 +517,7 @@ public class HelpMethod implements Serializable {
      * @return StagingArea instance.
      */
     public static StagingArea getStagingArea() {
-        return readObject(INDEX, StagingArea.class);
+        return StagingArea.read();
     }
 
     /**
@@ -420,59 +536,207 @@ public class HelpMethod implements Serializable {
     }
 
     public static Blob getBlob(String blobID, File fireDir) {
-        return readObject(objectFile(blobID, fireDir), Blob.class);
+        return new Blob(blobID, fireDir);
     }
 
+    /**
+     * open the stored bytes of an object, from its loose file or from the pack.
+     * @param id String of full SHA-1 ID.
+     * @param objectDir File of object directory.
+     * */
+    public static InputStream openObject(String id, File objectDir) throws IOException {
+        Trace.objectRead();
+        File file = objectFile(id, objectDir);
+        if (file.exists()) {
+            return new FileInputStream(file);
+        }
+        InputStream in = Pack.of(objectDir).open(id);
+        if (in == null) {
+            throw error("Object %s does not exist.", id);
+        }
+        return in;
+    }
 
     /**
-     * save the object to temp.
-     * @param file File that need to be used to store object.
-     * @param obj Serializable object that need to be stored.
+     * get the full SHA-1 ID of a commit, and quit with a message
+     * if no commit or more than one commit starts with the given ID.
+     * @param id String of full or abbreviated SHA-1 ID.
+     * @param objectDir File of object directory.
+     * @return String of full SHA-1 ID.
      * */
-    public static void saveObjectFile(File file, Serializable obj) {
-        File dir = file.getParentFile();
-        if (!dir.exists()) {
-            dir.mkdir();
+    public static String fullCommitID(String id, File objectDir) {
+        List<String> matches = objectIDsWithPrefix(id, objectDir);
+        matches.removeIf(match -> !isCommitObject(match, objectDir));
+        if (matches.isEmpty()) {
+            exit("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            exit("Commit id " + id + " is ambiguous.");
         }
-        writeObject(file, obj);
+        return matches.get(0);
     }
-    /** get the temp object file stored in OBJECT_FILE. */
-    public static File objectFile(String id) {
-        return objectFile(id, OBJECT_DIR);
+
+    /** @return boolean of whether a stored object is a commit, judged by its header. */
+    private static boolean isCommitObject(String id, File objectDir) {
+        byte[] header = Commit.HEADER.getBytes();
+        try (InputStream in = openObject(id, objectDir)) {
+            return Arrays.equals(in.readNBytes(header.length), header);
+        } catch (IOException excp) {
+            return false;
+        }
     }
-    public static File objectFile(String id, File objectDir) {
-        File fileDir = join(objectDir, id.substring(0, 2));
-        if (!fileDir.exists()) {
-            fileDir.mkdir();
-        }
-        String fileName = id.substring(2);
-        // check the short input commit ID such as 1d575e62
-        if (fileName.length() < 38) {
-            // get the full 38 digits file ID.
-            String fullFileName = shortCommitIDFind(fileDir, fileName.substring(0, 4));
-            if (fullFileName == null) {
-                exit("No commit with that id exists.");
+
+    /**
+     * get all stored objects whose SHA-1 ID starts with a prefix.
+     * Packed IDs are found by a binary search of the sorted pack index,
+     * loose IDs by a binary search of the one fan-out directory of the prefix.
+     * @param prefix String of abbreviated SHA-1 ID, at least 2 digits.
+     * @param objectDir File of object directory.
+     * @return List of full SHA-1 IDs in order, empty if the prefix is too short or not hex.
+     * */
+    public static List<String> objectIDsWithPrefix(String prefix, File objectDir) {
+        List<String> matches = new ArrayList<>();
+        if (prefix.length() < 2 || prefix.length() > UID_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
+            return matches;
+        }
+        String fanout = prefix.substring(0, 2);
+        String rest = prefix.substring(2);
+        List<String> fileNames = plainFilenamesIn(join(objectDir, fanout));
+        if (fileNames != null) {
+            int i = Collections.binarySearch(fileNames, rest);
+            for (i = i < 0 ? -i - 1 : i; i < fileNames.size()
+                    && fileNames.get(i).startsWith(rest); i += 1) {
+                if (fileNames.get(i).length() == UID_LENGTH - 2) {
+                    matches.add(fanout + fileNames.get(i));
+                }
+            }
+        }
+        for (String packed : Pack.of(objectDir).findByPrefix(prefix)) {
+            if (!matches.contains(packed)) {
+                matches.add(packed);
             }
-            return join(fileDir, fullFileName);
         }
-        return join(fileDir, fileName);
+        Collections.sort(matches);
+        return matches;
     }
 
     /**
-     * if the intput commit ID in command "Check out" is 6 digits,
-     * then find the corresponding file.
-     * @param fileDir File directory of that id (first two digits)
-     * @param id String of 6 digits input commit ID.
-     * @return String of fileName in full SHA-1 ID.
+     * get the shortest abbreviation of a stored object ID
+     * that no other stored object starts with.
+     * @param id String of full SHA-1 ID.
+     * @param objectDir File of object directory.
+     * @return String of at least ABBREV_LENGTH digits of ID.
      * */
-    public static String shortCommitIDFind(File fileDir, String id) {
-        List<String> fileNames = new ArrayList<>(plainFilenamesIn(fileDir));
-        for (String fileName : fileNames) {
-            if (id.equals(fileName.substring(0, 4))) {
-                return fileName;
+    public static String uniqueAbbreviation(String id, File objectDir) {
+        int length = ABBREV_LENGTH;
+        for (String other : objectIDsWithPrefix(id.substring(0, ABBREV_LENGTH), objectDir)) {
+            int common = 0;
+            while (common < UID_LENGTH && other.charAt(common) == id.charAt(common)) {
+                common += 1;
+            }
+            if (common < UID_LENGTH) {
+                length = Math.max(length, common + 1);
             }
         }
-        return null;
+        return id.substring(0, length);
+    }
+
+    /**
+     * copy the stored bytes of an object into another object directory,
+     * unless it is already there. Objects are content addressed,
+     * so nothing needs to be re-serialized: the bytes are transferred
+     * channel to channel. A blob stored as a delta brings its base along.
+     * @param id String of full SHA-1 ID.
+     * @param fromDir File of object directory that has the object.
+     * @param toDir File of object directory that needs the object.
+     * @return boolean of whether the object was copied.
+     * */
+    public static boolean copyObject(String id, File fromDir, File toDir) {
+        File file = objectFile(id, toDir);
+        if (file.exists() || WriteBatch.isPending(file) || Pack.of(toDir).contains(id)) {
+            return false;
+        }
+        String baseID = Blob.deltaBaseID(id, fromDir);
+        if (baseID != null) {
+            copyObject(baseID, fromDir, toDir);
+        }
+        File temp = WriteBatch.tempFor(file);
+        File source = objectFile(id, fromDir);
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (source.exists()) {
+                try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long copied = 0; copied < size; ) {
+                        copied += in.transferTo(copied, size - copied, out);
+                    }
+                }
+            } else {
+                ByteBuffer packed = Pack.of(fromDir).slice(id);
+                if (packed == null) {
+                    throw error("Object %s does not exist.", id);
+                }
+                while (packed.hasRemaining()) {
+                    out.write(packed);
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("Cannot copy object %s: %s", id, excp.getMessage());
+        }
+        WriteBatch.add(temp, file);
+        return true;
+    }
+
+    /**
+     * get all loose objects of an object directory.
+     * @return Map of SHA-1 ID as key and object file as value.
+     * */
+    public static Map<String, File> looseObjects(File objectDir) {
+        Map<String, File> objects = new TreeMap<>();
+        File[] fanouts = objectDir.listFiles(File::isDirectory);
+        if (fanouts == null) {
+            return objects;
+        }
+        for (File fanout : fanouts) {
+            if (fanout.getName().length() != 2) {
+                continue;
+            }
+            for (String fileName : plainFilenamesIn(fanout)) {
+                if (fileName.length() == UID_LENGTH - 2) {
+                    objects.put(fanout.getName() + fileName, join(fanout, fileName));
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * fold all loose objects into the pack, and then delete the ones packed.
+     * Objects the pack has no room for stay loose.
+     * @return number of objects that were loose.
+     * */
+    public static int repackObjects(File objectDir) {
+        Map<String, File> loose = looseObjects(objectDir);
+        Pack pack = Pack.of(objectDir);
+        pack.append(loose);
+        clearCommitCache();
+        for (Map.Entry<String, File> entry : loose.entrySet()) {
+            if (pack.contains(entry.getKey())) {
+                entry.getValue().delete();
+                entry.getValue().getParentFile().delete();
+            }
+        }
+        return loose.size();
+    }
+
+
+    /** get the temp object file stored in OBJECT_FILE. */
+    public static File objectFile(String id) {
+        return objectFile(id, OBJECT_DIR);
+    }
+    public static File objectFile(String id, File objectDir) {
+        return join(objectDir, id.substring(0, 2), id.substring(2));
     }
 
     /**
@@ -480,19 +744,11 @@ public class HelpMethod implements Serializable {
      * @param blob Blob of a stored file that need to overwrite a file.
      * */
     public static void updateFileWithBlob(String filePath, Blob blob) {
-        writeContents(join(filePath), blob.getFileContents());
+        File file = join(filePath);
+        file.getParentFile().mkdirs();
+        blob.writeTo(file);
     }
 
-    /** Rewrite merged new file, containing both contents from HEAD and given commit. */
-    public static void updatedFileMerged(String filePath, String head, String given) {
-        String text1 = "<<<<<<< HEAD" + "\n";
-        String text2 = head;
-        String text3 = "=======" + "\n";
-        String text4 = given;
-        String text5 = ">>>>>>>" + '\n';
-        writeContents(join(filePath), text1 + text2 + text3 + text4 + text5);
-
-    }
 
 }
 
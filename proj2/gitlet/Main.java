@@ -1,5 +1,10 @@
 package gitlet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
 import static gitlet.MyUtils.*;
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author ASmellyCat
@@ -11,8 +16,29 @@ public class Main {
      *  java gitlet.Main add hello.txt
      *  java gitlet.Main commit "modified"
      *  java gitlet.Main rm hello.txt
+     *  java gitlet.Main --trace status
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            daemon(args);
+        } else if (!Daemon.forward(Trace.withFlag(args))) {
+            run(Trace.withFlag(args));
+        }
+    }
+
+    /** Run one command in this process, either directly or for a client of the daemon.
+     *  A leading --trace prints the timing and I/O counters of the command to stderr. */
+    static void run(String[] args) {
+        args = Trace.begin(args);
+        try {
+            dispatch(args);
+        } finally {
+            Trace.end();
+        }
+    }
+
+    /** Run the command named by the first of ARGS. */
+    private static void dispatch(String[] args) {
         String fileName;
         String message;
         String commitID;
@@ -29,11 +55,12 @@ public class Main {
                 validateNumArgs("init", args, 1);
                 Repository.init();
                 break;
-            case "add": // Usage: java gitlet.Main add [file name]
+            case "add": // Usage: java gitlet.Main add [--stats] [file name] ...
                 Repository.isInitialized();
-                validateNumArgs("add", args, 2);
-                fileName = args[1];
-                Repository.add(fileName);
+                List<String> fileNames = operands(args);
+                boolean stats = fileNames.remove("--stats");
+                validateMinNumArgs("add", fileNames, 1);
+                Repository.add(fileNames, stats);
                 break;
             case "rm": // Usage: java gitlet.Main rm [file name]
                 Repository.isInitialized();
@@ -50,21 +77,53 @@ public class Main {
                 }
                 Repository.commit(message);
                 break;
-            case "log": // Usage: java gitlet.Main log
+            case "log": // Usage: java gitlet.Main log [-n count] [--since date] [--until date]
                 Repository.isInitialized();
-                validateNumArgs("log", args, 1);
-                Repository.log();
+                int limit = -1;
+                long since = Long.MIN_VALUE;
+                long until = Long.MAX_VALUE;
+                for (int i = 1; i < args.length; i += 2) {
+                    if (i + 1 == args.length) {
+                        exit("Incorrect operands.");
+                    } else if (args[i].equals("-n")) {
+                        limit = parseCount(args[i + 1]);
+                    } else if (args[i].equals("--since")) {
+                        since = parseDate(args[i + 1]);
+                    } else if (args[i].equals("--until")) {
+                        until = parseDate(args[i + 1]);
+                    } else {
+                        exit("Incorrect operands.");
+                    }
+                }
+                Repository.log(limit, since, until);
                 break;
             case "global-log": // Usage: java gitlet.Main global-log
                 Repository.isInitialized();
                 validateNumArgs("global-log", args, 1);
                 Repository.globalLog();
                 break;
-            case "find": // Usage: java gitlet.Main find [commit message]
+            case "find": // Usage: java gitlet.Main find [--token | --substring] [commit message]
                 Repository.isInitialized();
+                if (args.length == 3 && (args[1].equals("--token")
+                        || args[1].equals("--substring"))) {
+                    Repository.find(args[2], args[1].substring(2));
+                    break;
+                }
                 validateNumArgs("find", args, 2);
                 message = args[1];
-                Repository.find(message);
+                Repository.find(message, "exact");
+                break;
+            case "diff": // Usage: java gitlet.Main diff [--cached | commit commit]
+                Repository.isInitialized();
+                if (args.length == 1) {
+                    Repository.diff();
+                } else if (args.length == 2 && args[1].equals("--cached")) {
+                    Repository.diffCached();
+                } else if (args.length == 3) {
+                    Repository.diff(args[1], args[2]);
+                } else {
+                    exit("Incorrect operands.");
+                }
                 break;
             case "status": // Usage: java gitlet.Main status
                 Repository.isInitialized();
@@ -119,6 +178,33 @@ public class Main {
                 branchName = args[1];
                 Repository.merge(branchName);
                 break;
+            case "merge-base": // Usage: java gitlet.Main merge-base [commit] [commit]
+                Repository.isInitialized();
+                List<String> names = operands(args);
+                validateMinNumArgs("merge-base", names, 1);
+                if (names.size() > 2) {
+                    exit("Incorrect operands.");
+                }
+                Repository.mergeBase(names);
+                break;
+            case "repack": // Usage: java gitlet.Main repack
+                Repository.isInitialized();
+                validateNumArgs("repack", args, 1);
+                Repository.repack();
+                break;
+            case "gc": // Usage: java gitlet.Main gc
+                Repository.isInitialized();
+                validateNumArgs("gc", args, 1);
+                Repository.gc();
+                break;
+            case "reflog": // Usage: java gitlet.Main reflog [branch name]
+                Repository.isInitialized();
+                List<String> branches = operands(args);
+                if (branches.size() > 1) {
+                    exit("Incorrect operands.");
+                }
+                Repository.reflog(branches);
+                break;
             case "add-remote": // Usage: java gitlet.Main add-remote [remote name]
                 // [name of remote directory]/.gitlet
                 Repository.isInitialized();
@@ -159,10 +245,59 @@ public class Main {
         }
     }
 
+    /** Usage: java gitlet.Main daemon [stop] */
+    private static void daemon(String[] args) {
+        Repository.isInitialized();
+        if (args.length == 1) {
+            Daemon.serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            if (!Daemon.forward(args)) {
+                exit("No daemon is running.");
+            }
+        } else {
+            exit("Incorrect operands.");
+        }
+    }
+
+    /** @return int of a non-negative count given on the command line. */
+    private static int parseCount(String text) {
+        try {
+            int count = Integer.parseInt(text);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            // fall through to the message below.
+        }
+        exit("Invalid count: " + text);
+        return -1;
+    }
+
+    /** @return long of the timestamp in milliseconds of a date given on the command line. */
+    private static long parseDate(String text) {
+        Date date = Commit.parseTimestamp(text);
+        if (date == null) {
+            exit("Invalid date: " + text);
+        }
+        return date.getTime();
+    }
+
     private static void validateNumArgs(String cmd, String[] args, int n) {
         if (args.length != n) {
             throw new RuntimeException(
                     String.format("Invalid number of arguments for: %s.", cmd));
         }
     }
+
+    /** @return List of the operands after the command, which can be modified. */
+    private static List<String> operands(String[] args) {
+        return new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+    }
+
+    private static void validateMinNumArgs(String cmd, List<String> operands, int n) {
+        if (operands.size() < n) {
+            throw new RuntimeException(
+                    String.format("Invalid number of arguments for: %s.", cmd));
+        }
+    }
 }
@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.HelpMethod.*;
+import static gitlet.MyUtils.*;
+import static gitlet.Repository.OBJECT_DIR;
+import static gitlet.Utils.*;
+
+/**Represents the plan of a merge, built in memory before anything is written.
+ * @author ASmellyCat
+ * a merge plan contains:
+ * 1. files to check out from the given branch
+ * 2. files to remove
+ * 3. files changed on both sides, with their contents merged line by line
+ * 4. the tracked files of the merge commit
+ *
+ * Every check, including the one for untracked files in the way, is done
+ * while building the plan, so a merge that cannot go on leaves the working
+ * directory, index and branches exactly as they were.
+ * If writing the working files fails partway, the files already touched are
+ * put back as they are in HEAD before the failure is passed on.
+ */
+public class MergePlan {
+    /** Map of files to check out with filepath as key and blob SHA-1 ID as value. */
+    private final Map<String, String> checkouts;
+    /** Set of files to remove. */
+    private final Set<String> removals;
+    /** Map of files changed on both sides with filepath as key and merged contents as value. */
+    private final Map<String, byte[]> combined;
+    /** Set of files whose merged contents have conflict hunks. */
+    private final Set<String> conflicted;
+    /** Map of tracked files of the HEAD commit. */
+    private final Map<String, String> head;
+    /** Map of tracked files of the merge commit. */
+    private final Map<String, String> merged;
+    /** Set of files apply has started to write or remove. */
+    private final Set<String> applied = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Plan a merge by comparing files in the split, HEAD and given commits,
+     * and quit with a message if an untracked file is in the way.
+     * @param splitTracked Map of tracked files of the split commit.
+     * @param headTracked Map of tracked files of the HEAD commit.
+     * @param otherTracked Map of tracked files of the given commit.
+     */
+    public MergePlan(Map<String, String> splitTracked, Map<String, String> headTracked,
+                     Map<String, String> otherTracked) {
+        checkouts = new TreeMap<>();
+        removals = new TreeSet<>();
+        combined = new TreeMap<>();
+        conflicted = new TreeSet<>();
+        head = headTracked;
+        merged = new HashMap<>(headTracked);
+        Set<String> allFilePath = new TreeSet<>();
+        allFilePath.addAll(splitTracked.keySet());
+        allFilePath.addAll(headTracked.keySet());
+        allFilePath.addAll(otherTracked.keySet());
+        for (String filePath : allFilePath) {
+            String headID = headTracked.get(filePath);
+            String otherID = otherTracked.get(filePath);
+            int action = check(splitTracked.get(filePath), headID, otherID);
+            if (action == 1 || action == 3) { // take the given version.
+                checkouts.put(filePath, otherID);
+                merged.put(filePath, otherID);
+            } else if (action == 2) { // remove file from head.
+                removals.add(filePath);
+                merged.remove(filePath);
+            } else if (action >= 4) { // both changed, merged line by line if both exist.
+                byte[] contents = mergeContents(splitTracked.get(filePath), headID, otherID,
+                        filePath);
+                combined.put(filePath, contents);
+                merged.put(filePath, Blob.idOf(contents));
+            }
+        }
+        for (String filePath : writtenFiles()) {
+            if (!headTracked.containsKey(filePath) && join(filePath).exists()) {
+                exit("There is an untracked file in the way; delete it, "
+                        + "or add and commit it first.");
+            }
+        }
+    }
+
+    /** @return boolean of whether the merge changes nothing. */
+    public boolean isEmpty() {
+        return checkouts.isEmpty() && removals.isEmpty() && combined.isEmpty();
+    }
+
+    /** @return boolean of whether the merge has combined. */
+    public boolean hasConflict() {
+        return !conflicted.isEmpty();
+    }
+
+    /** @return Map of tracked files of the merge commit. */
+    public Map<String, String> getMerged() {
+        return merged;
+    }
+
+    /** @return List of files the merge writes or removes. */
+    public List<String> touchedFiles() {
+        List<String> files = writtenFiles();
+        files.addAll(removals);
+        return files;
+    }
+
+    /**
+     * Carry out the plan: write checked-out and combined files in parallel,
+     * store the combined contents as blobs, and remove files.
+     * The blobs are left pending in the write batch, and the index and branches
+     * are not touched. If a write fails, the touched files are restored.
+     */
+    public void apply() {
+        try {
+            checkouts.entrySet().parallelStream().forEach(entry -> {
+                applied.add(entry.getKey());
+                updateFileWithBlob(entry.getKey(), getBlob(entry.getValue()));
+            });
+            combined.entrySet().parallelStream().forEach(entry -> {
+                String filePath = entry.getKey();
+                applied.add(filePath);
+                File file = join(filePath);
+                file.getParentFile().mkdirs();
+                writeContents(file, (Object) entry.getValue());
+                new Blob(file, merged.get(filePath)).save(OBJECT_DIR, head.get(filePath));
+            });
+            for (String filePath : removals) {
+                applied.add(filePath);
+                deleteWorkingFile(filePath);
+            }
+        } catch (RuntimeException excp) {
+            restore();
+            throw excp;
+        }
+    }
+
+    /** private HELP method. */
+
+    /** Put every file apply touched back as it is in HEAD, removing files HEAD lacks. */
+    private void restore() {
+        for (String filePath : applied) {
+            try {
+                String headID = head.get(filePath);
+                if (headID == null) {
+                    deleteWorkingFile(filePath);
+                } else {
+                    updateFileWithBlob(filePath, getBlob(headID));
+                }
+            } catch (RuntimeException excp) {
+                System.err.println("Cannot restore " + relativePath(filePath) + ": "
+                        + excp.getMessage());
+            }
+        }
+    }
+
+    /** @return List of files the merge writes. */
+    private List<String> writtenFiles() {
+        List<String> files = new ArrayList<>(checkouts.keySet());
+        files.addAll(combined.keySet());
+        return files;
+    }
+
+    /**
+     * Merge the contents of a file changed on both sides.
+     * If both sides have the file, regions changed on one side only are taken
+     * from that side, and only regions changed on both become conflict hunks.
+     * If one side removed it, the whole file is one conflict hunk.
+     * @param splitID String of SHA-1 ID in the split commit, or null if absent.
+     * @param headID String of SHA-1 ID in HEAD, or null if absent.
+     * @param otherID String of SHA-1 ID in the given branch, or null if absent.
+     * @param filePath String of the file path, recorded if it is conflicted.
+     * @return byte array of the merged file.
+     */
+    private byte[] mergeContents(String splitID, String headID, String otherID,
+                                 String filePath) {
+        byte[] headContents = headID == null ? new byte[0] : getBlob(headID).getFileContents();
+        byte[] otherContents = otherID == null ? new byte[0]
+                : getBlob(otherID).getFileContents();
+        if (headID == null || otherID == null) {
+            conflicted.add(filePath);
+            return Diff.conflict(headContents, otherContents);
+        }
+        byte[] splitContents = splitID == null ? new byte[0]
+                : getBlob(splitID).getFileContents();
+        Diff.Merged result = Diff.merge(splitContents, headContents, otherContents);
+        if (result.hasConflict()) {
+            conflicted.add(filePath);
+        }
+        return result.getContents();
+    }
+}
@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Represents the persistent message index of a gitlet directory.
+ * @author ASmellyCat
+ * The index maps whole commit messages, the words in them and every three
+ * characters in a row (trigrams) to commit graph records.
+ * It is an on-disk hash table with chained entries:
+ *<pre>
+ * message-index
+ *    ├── magic, bucket count, number of records indexed   (int, int, int)
+ *    ├── bucket heads      (long each, offset of the newest entry, or 0)
+ *    └── entries           [hash (int)] [kind (int)] [record (int)] [next entry (long)]
+ *</pre>
+ * Entries are only appended, and the bucket heads of new entries are moved to them,
+ * so an update writes the new entries and the heads, whatever the size of the
+ * repository, and a lookup reads one bucket head and its chain.
+ * A new index has few buckets; once chains grow longer than MAX_LOAD on average,
+ * the index is rebuilt with enough buckets for twice its entries.
+ * A substring is looked up through the trigrams it contains, and candidates
+ * are checked against the commit graph, so hash collisions never show up in the results.
+ * The index is derived from the commit graph and is never fsynced: records it
+ * lacks are indexed on next use, and an index naming more records than the graph
+ * has, or with a broken chain after a crash, is built again.
+ */
+public class MessageIndex {
+    /** Key kind of a whole message. */
+    private static final int EXACT = 0;
+    /** Key kind of a word of a message. */
+    private static final int TOKEN = 1;
+    /** Key kind of a trigram of a message. */
+    private static final int GRAM = 2;
+    /** Characters in a trigram. */
+    private static final int GRAM_LENGTH = 3;
+    /** Header of the index file. */
+    private static final int MAGIC = 0x474d4932; // "GMI2"
+    /** Number of buckets of a new index, a power of two. */
+    private static final int MIN_BUCKETS = 1 << 6;
+    /** Average number of entries per bucket above which the index is rebuilt. */
+    private static final int MAX_LOAD = 4;
+    /** Bytes before the bucket heads. */
+    private static final int HEADER = 12;
+    /** Bytes of one entry. */
+    private static final int ENTRY_BYTES = 4 + 4 + 4 + 8;
+
+    /**
+     * Index the records of a commit graph that are not indexed yet.
+     * @param graph CommitGraph of a gitlet directory.
+     */
+    public static void update(CommitGraph graph) {
+        File file = indexFile(graph);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() == 0 || readInt(channel, 0) != MAGIC) {
+                reset(channel, MIN_BUCKETS);
+            }
+            int buckets = readInt(channel, 4);
+            int indexed = readInt(channel, 8);
+            if (indexed > graph.size()) {
+                reset(channel, buckets);
+                indexed = 0;
+            }
+            if (indexed >= graph.size()) {
+                return;
+            }
+            index(channel, buckets, graph, indexed);
+            long entries = (channel.size() - HEADER - buckets * 8L) / ENTRY_BYTES;
+            if (entries > (long) buckets * MAX_LOAD) {
+                while (entries * 2 > (long) buckets * MAX_LOAD) {
+                    buckets <<= 1;
+                }
+                reset(channel, buckets);
+                index(channel, buckets, graph, 0);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write message index: %s", excp.getMessage());
+        }
+    }
+
+    /** Delete the message index of a gitlet directory, after its records were renumbered. */
+    public static void clear(File gitletDir) {
+        indexFile(gitletDir).delete();
+    }
+
+    /**
+     * find the commits whose message is exactly a given message.
+     * @return List of record indexes, in commit order.
+     */
+    public static List<Integer> findExact(CommitGraph graph, String message) {
+        List<Integer> found = new ArrayList<>();
+        for (int i : candidates(graph, message.hashCode(), EXACT)) {
+            if (graph.message(i).equals(message)) {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * find the commits whose message contains a given word, ignoring case.
+     * @return List of record indexes, in commit order.
+     */
+    public static List<Integer> findToken(CommitGraph graph, String word) {
+        List<Integer> found = new ArrayList<>();
+        List<String> query = tokens(word);
+        if (query.size() != 1) {
+            return found;
+        }
+        String token = query.get(0);
+        for (int i : candidates(graph, token.hashCode(), TOKEN)) {
+            if (tokens(graph.message(i)).contains(token)) {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * find the commits whose message contains a given string.
+     * A string shorter than a trigram is searched in every message.
+     * @return List of record indexes, in commit order.
+     */
+    public static List<Integer> findSubstring(CommitGraph graph, String part) {
+        List<Integer> found = new ArrayList<>();
+        if (part.length() < GRAM_LENGTH) {
+            for (int i = 0; i < graph.size(); i += 1) {
+                if (graph.message(i).contains(part)) {
+                    found.add(i);
+                }
+            }
+            return found;
+        }
+        Set<Integer> records = null;
+        for (String gram : grams(part)) {
+            Set<Integer> matched = candidates(graph, gram.hashCode(), GRAM);
+            if (records == null) {
+                records = matched;
+            } else {
+                records.retainAll(matched);
+            }
+            if (records.isEmpty()) {
+                break;
+            }
+        }
+        for (int i : records) {
+            if (graph.message(i).contains(part)) {
+                found.add(i);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * split a message into its distinct lower-case words of letters and digits.
+     * @return List of words in the order they first appear.
+     */
+    public static List<String> tokens(String message) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return new ArrayList<>(words);
+    }
+
+    /** private HELP method. */
+
+    /** @return List of the distinct trigrams of a message, in the order they first appear. */
+    private static List<String> grams(String message) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= message.length(); i += 1) {
+            grams.add(message.substring(i, i + GRAM_LENGTH));
+        }
+        return new ArrayList<>(grams);
+    }
+
+    /** Empty the index file and write a header with BUCKETS empty bucket heads. */
+    private static void reset(FileChannel channel, int buckets) throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER + buckets * 8);
+        header.putInt(MAGIC).putInt(buckets).putInt(0).rewind();
+        writeFully(channel, header, 0);
+    }
+
+    /**
+     * Append the entries of records FROM onward in one write, then move their
+     * bucket heads, then the number of records indexed.
+     */
+    private static void index(FileChannel channel, int buckets, CommitGraph graph, int from)
+            throws IOException {
+        ByteBuffer heads = ByteBuffer.allocate(buckets * 8);
+        readFully(channel, heads, HEADER);
+        long start = channel.size();
+        long end = start;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(bytes);
+        for (int i = from; i < graph.size(); i += 1) {
+            String message = graph.message(i);
+            List<int[]> keys = new ArrayList<>();
+            keys.add(new int[]{message.hashCode(), EXACT});
+            for (String token : tokens(message)) {
+                keys.add(new int[]{token.hashCode(), TOKEN});
+            }
+            for (String gram : grams(message)) {
+                keys.add(new int[]{gram.hashCode(), GRAM});
+            }
+            for (int[] key : keys) {
+                int head = bucketOf(key[0], key[1], buckets) * 8;
+                entries.writeInt(key[0]);
+                entries.writeInt(key[1]);
+                entries.writeInt(i);
+                entries.writeLong(heads.getLong(head));
+                heads.putLong(head, end);
+                end += ENTRY_BYTES;
+            }
+        }
+        writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), start);
+        heads.rewind();
+        writeFully(channel, heads, HEADER);
+        writeFully(channel, ByteBuffer.allocate(4).putInt(0, graph.size()), 8);
+    }
+
+    /**
+     * @return Set of record indexes in the chain of a key, sorted.
+     * An index left broken by a crash is deleted and built again from the graph.
+     */
+    private static Set<Integer> candidates(CommitGraph graph, int hash, int kind) {
+        update(graph);
+        try {
+            return chain(graph, hash, kind);
+        } catch (IOException excp) {
+            clear(graph.getDirectory());
+            update(graph);
+        }
+        try {
+            return chain(graph, hash, kind);
+        } catch (IOException excp) {
+            throw error("Cannot read message index: %s", excp.getMessage());
+        }
+    }
+
+    /** Read the chain of a key; each entry must point to an older one, and name a record. */
+    private static Set<Integer> chain(CommitGraph graph, int hash, int kind)
+            throws IOException {
+        Set<Integer> records = new TreeSet<>();
+        try (FileChannel channel = FileChannel.open(indexFile(graph).toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+            int buckets = readInt(channel, 4);
+            long offset = readLong(channel, HEADER + bucketOf(hash, kind, buckets) * 8L);
+            while (offset != 0) {
+                entry.clear();
+                readFully(channel, entry, offset);
+                int record = entry.getInt(8);
+                long next = entry.getLong(12);
+                if (record < 0 || record >= graph.size() || next >= offset) {
+                    throw new IOException("broken chain");
+                }
+                if (entry.getInt(0) == hash && entry.getInt(4) == kind) {
+                    records.add(record);
+                }
+                offset = next;
+            }
+        }
+        return records;
+    }
+
+    /** @return int of the bucket of a key in a table of BUCKETS buckets. */
+    private static int bucketOf(int hash, int kind, int buckets) {
+        int mixed = (hash ^ (hash >>> 16)) * 31 + kind;
+        return mixed & (buckets - 1);
+    }
+
+    private static File indexFile(CommitGraph graph) {
+        return indexFile(graph.getDirectory());
+    }
+
+    private static File indexFile(File gitletDir) {
+        return join(gitletDir, "message-index");
+    }
+
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(channel, buffer, position);
+        return buffer.getInt(0);
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        readFully(channel, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of message index");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -6,12 +6,20 @@ package gitlet;
 import static gitlet.Utils.*;
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MyUtils implements Serializable {
+    /** Print a message and end the command.
+     *  A daemon serving the command keeps running, so it is ended by an exception. */
     public static void exit(String message) {
         if (message != null && !message.equals("")) {
             System.out.println(message);
         }
+        if (Daemon.isServing()) {
+            throw new Daemon.CommandExit();
+        }
+        Trace.end();
         System.exit(0);
     }
 
@@ -34,14 +42,58 @@ public class MyUtils implements Serializable {
 
     }
 
+    /** Change absolute file path into file name relative to the working directory.
+     *  A path already in normal form under the working directory is only cut,
+     *  since the index and trees convert every tracked path. */
+    public static String relativePath(String filePath) {
+        String prefix = Repository.CWD.getPath() + File.separator;
+        if (File.separatorChar == '/' && filePath.startsWith(prefix)
+                && isNormal(filePath.substring(prefix.length()))) {
+            return filePath.substring(prefix.length());
+        }
+        return Repository.CWD.toPath().relativize(join(filePath).toPath())
+                .toString().replace(File.separatorChar, '/');
+    }
+
     /** Change file name or absolute file path into absolute file path*/
     public static String absolutePath(String fileName) {
-        if (fileName.contains("/")) {
+        if (new File(fileName).isAbsolute()) {
             return fileName;
+        } else if (File.separatorChar == '/' && isNormal(fileName)) {
+            return Repository.CWD.getPath() + File.separator + fileName;
         }
-        return join(Repository.CWD, fileName).getAbsolutePath();
+        return join(Repository.CWD, fileName).toPath().normalize().toString();
     }
 
+    /**
+     * get every plain file under a directory of the working tree, in all subdirectories.
+     * gitlet directories are skipped.
+     * @return List of absolute paths of the files, sorted.
+     */
+    public static List<String> workingFiles(File dir) {
+        List<String> files = new ArrayList<>();
+        collectWorkingFiles(dir, files);
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Delete a working file, then each directory the deletion leaves empty,
+     * up to the working directory. Paths outside the working directory are refused.
+     * @return boolean of whether the file was deleted.
+     */
+    public static boolean deleteWorkingFile(String filePath) {
+        File file = join(absolutePath(filePath));
+        if (!file.toPath().startsWith(Repository.CWD.toPath()) || !file.isFile()
+                || !file.delete()) {
+            return false;
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(Repository.CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+        return true;
+    }
 
     public static void updateIntoFile(File file, String text) {
         String updatedText;
@@ -53,5 +105,50 @@ public class MyUtils implements Serializable {
         writeContents(file, updatedText);
     }
 
+    /** Convert a hexadecimal SHA-1 ID into its binary form. */
+    public static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
 
+    /** Convert a binary SHA-1 ID into its hexadecimal form. */
+    public static String bytesToHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    /** @return boolean of whether a relative path has no empty, "." or ".." name in it. */
+    private static boolean isNormal(String path) {
+        if (path.isEmpty()) {
+            return false;
+        }
+        for (String name : path.split("/", -1)) {
+            if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Add the plain files under DIR to FILES, skipping gitlet directories. */
+    private static void collectWorkingFiles(File dir, List<String> files) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.isFile()) {
+                files.add(entry.getAbsolutePath());
+            } else if (entry.isDirectory() && !entry.getName().equals(".gitlet")) {
+                collectWorkingFiles(entry, files);
+            }
+        }
+    }
 }
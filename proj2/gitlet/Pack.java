@@ -0,0 +1,473 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+import static gitlet.MyUtils.*;
+
+/** Represents the pack of an object directory.
+ * @author ASmellyCat
+ * A pack contains:
+ * 1. objects.pack - append-only records of [SHA-1 ID][length][object bytes].
+ * 2. objects.idx - fan-out table, sorted SHA-1 IDs, offsets and lengths.
+ *<pre>
+ * objects
+ *    ├── xx (directory)     // loose objects, one file per object
+ *    └── pack
+ *          ├── objects.pack
+ *          └── objects.idx
+ *</pre>
+ * Both files are memory-mapped, so looking up an object costs
+ * a binary search instead of opening a file. The two mappings and the object
+ * count are replaced together as one immutable Mapping, so threads reading the
+ * pack never see the index of one pack with the data of another.
+ * The pack is mapped as one buffer, so it is never allowed to grow past
+ * MAX_PACK_BYTES; objects that would not fit stay loose.
+ */
+public class Pack {
+    /** The name of pack directory inside an object directory. */
+    static final String PACK_DIR_NAME = "pack";
+    /** Bytes of a SHA-1 ID in binary form. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Header of the pack file. */
+    private static final int PACK_MAGIC = 0x47504b31; // "GPK1"
+    /** Header of the index file. */
+    private static final int INDEX_MAGIC = 0x47494431; // "GID1"
+    /** Bytes before the first record of pack file. */
+    private static final int PACK_HEADER = 4;
+    /** Bytes before the sorted IDs of index file: magic and fan-out table. */
+    private static final int INDEX_HEADER = 4 + 256 * 4;
+    /** Bytes before the object in each record: SHA-1 ID and length. */
+    private static final int RECORD_HEADER = ID_BYTES + 4;
+    /** Largest pack file, the most one mapped buffer can address. */
+    static final long MAX_PACK_BYTES = Integer.MAX_VALUE;
+
+    /** Packs already opened by this process, with object directory as key.
+     *  Blobs are saved and written from many threads, so it is concurrent. */
+    private static final Map<File, Pack> OPENED = new ConcurrentHashMap<>();
+
+    /** The append-only pack file. */
+    private final File packFile;
+    /** The sorted index file of pack. */
+    private final File indexFile;
+    /** The mapped index and pack data, replaced as a whole by load. */
+    private volatile Mapping mapping;
+    /** Size and modification time of the index file when it was mapped. */
+    private long[] indexStamp;
+
+    /** Open the pack of a given object directory. */
+    private Pack(File objectDir) {
+        File packDir = join(objectDir, PACK_DIR_NAME);
+        File newDir = join(objectDir, PACK_DIR_NAME + ".new");
+        if (!packDir.exists() && newDir.isDirectory() && !newDir.renameTo(packDir)) {
+            throw error("Cannot finish replacing the pack in %s.", objectDir.getPath());
+        }
+        packFile = join(packDir, "objects.pack");
+        indexFile = join(packDir, "objects.idx");
+        load();
+    }
+
+    /** get the pack of an object directory, opening it only once per process. */
+    public static Pack of(File objectDir) {
+        return OPENED.computeIfAbsent(objectDir.getAbsoluteFile(), Pack::new);
+    }
+
+    /** Map again opened packs whose index was rewritten by another process. */
+    public static void refresh() {
+        for (Pack pack : OPENED.values()) {
+            if (!Arrays.equals(pack.indexStamp, stamp(pack.indexFile))) {
+                pack.load();
+            }
+        }
+    }
+
+    /** @return number of objects in this pack. */
+    public int size() {
+        return mapping.size;
+    }
+
+    /** @return boolean of whether an object with a full SHA-1 ID is packed. */
+    public boolean contains(String id) {
+        return mapping.position(id) >= 0;
+    }
+
+    /**
+     * read the bytes of a packed object.
+     * @param id String of full SHA-1 ID.
+     * @return byte array of object, or null if it is not packed.
+     */
+    public byte[] read(String id) {
+        ByteBuffer buffer = slice(id);
+        if (buffer == null) {
+            return null;
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * a read-only view of a packed object, without copying it out of the mapping.
+     * @param id String of full SHA-1 ID.
+     * @return ByteBuffer of object, or null if it is not packed.
+     */
+    public ByteBuffer slice(String id) {
+        return mapping.slice(id);
+    }
+
+    /**
+     * open a packed object as a stream over the mapping.
+     * @param id String of full SHA-1 ID.
+     * @return InputStream of object, or null if it is not packed.
+     */
+    public InputStream open(String id) {
+        ByteBuffer buffer = slice(id);
+        if (buffer == null) {
+            return null;
+        }
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!buffer.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * find all packed SHA-1 IDs starting with a given prefix.
+     * @param prefix String of abbreviated SHA-1 ID.
+     * @return List of full SHA-1 IDs in order.
+     */
+    public List<String> findByPrefix(String prefix) {
+        Mapping m = mapping;
+        List<String> result = new ArrayList<>();
+        if (m.size == 0 || prefix.isEmpty()) {
+            return result;
+        }
+        int lo = 0;
+        int hi = m.size;
+        if (prefix.length() >= 2) {
+            int first = Integer.parseInt(prefix.substring(0, 2), 16);
+            lo = first == 0 ? 0 : m.index.getInt(fanoutAt(first - 1));
+            hi = m.index.getInt(fanoutAt(first));
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (m.idAt(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < m.size && m.idAt(i).startsWith(prefix); i += 1) {
+            result.add(m.idAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Append loose objects to the pack, then publish a new index.
+     * Objects already in the pack are skipped, and so are objects that would
+     * grow the pack past MAX_PACK_BYTES; those stay loose.
+     * @param loose Map of SHA-1 ID as key and loose object file as value.
+     * @return number of objects appended.
+     */
+    public int append(Map<String, File> loose) {
+        Mapping m = mapping;
+        TreeMap<String, long[]> entries = new TreeMap<>();
+        for (int i = 0; i < m.size; i += 1) {
+            entries.put(m.idAt(i), new long[]{m.offset(i), m.length(i)});
+        }
+        int appended = 0;
+        packFile.getParentFile().mkdirs();
+        try (FileChannel out = FileChannel.open(packFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long end = out.size();
+            if (end == 0) {
+                out.write(ByteBuffer.allocate(PACK_HEADER).putInt(0, PACK_MAGIC));
+                end = PACK_HEADER;
+            }
+            for (Map.Entry<String, File> entry : loose.entrySet()) {
+                String id = entry.getKey();
+                if (entries.containsKey(id)) {
+                    continue;
+                }
+                long length = entry.getValue().length();
+                if (end + RECORD_HEADER + length > MAX_PACK_BYTES) {
+                    continue;
+                }
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+                header.put(hexToBytes(id)).putInt((int) length).flip();
+                end += out.write(header, end);
+                try (FileChannel in = new FileInputStream(entry.getValue()).getChannel()) {
+                    long copied = 0;
+                    while (copied < length) {
+                        copied += out.transferFrom(in, end + copied, length - copied);
+                    }
+                }
+                entries.put(id, new long[]{end, length});
+                end += length;
+                appended += 1;
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot write pack: %s", excp.getMessage());
+        }
+        writeIndex(entries, indexFile);
+        load();
+        return appended;
+    }
+
+    /**
+     * Rewrite the pack with only the given objects.
+     * The new pack is written in full to pack.new, and then swapped in
+     * with two renames; a pack directory missing after a crash between them
+     * is recovered from pack.new when the pack is next opened.
+     * @param live Set of SHA-1 IDs to keep; other packed objects are dropped.
+     * @return long of number of bytes reclaimed.
+     */
+    public long retain(Set<String> live) {
+        Mapping m = mapping;
+        List<String> kept = new ArrayList<>();
+        for (int i = 0; i < m.size; i += 1) {
+            String id = m.idAt(i);
+            if (live.contains(id)) {
+                kept.add(id);
+            }
+        }
+        if (kept.size() == m.size) {
+            return 0;
+        }
+        long before = packFile.length() + indexFile.length();
+        File packDir = packFile.getParentFile();
+        File newDir = join(packDir.getParentFile(), PACK_DIR_NAME + ".new");
+        File oldDir = join(packDir.getParentFile(), PACK_DIR_NAME + ".old");
+        deleteDirectory(newDir);
+        deleteDirectory(oldDir);
+        newDir.mkdirs();
+        File newPack = join(newDir, packFile.getName());
+        TreeMap<String, long[]> entries = new TreeMap<>();
+        try (FileChannel out = FileChannel.open(newPack.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long end = out.write(ByteBuffer.allocate(PACK_HEADER).putInt(0, PACK_MAGIC));
+            for (String id : kept) {
+                ByteBuffer object = m.slice(id);
+                int length = object.remaining();
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+                header.put(hexToBytes(id)).putInt(length).flip();
+                end += out.write(header, end);
+                entries.put(id, new long[]{end, length});
+                while (object.hasRemaining()) {
+                    end += out.write(object, end);
+                }
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot write pack: %s", excp.getMessage());
+        }
+        writeIndex(entries, join(newDir, indexFile.getName()));
+        if (!packDir.renameTo(oldDir) || !newDir.renameTo(packDir)) {
+            throw error("Cannot replace the pack in %s.", packDir.getParent());
+        }
+        deleteDirectory(oldDir);
+        load();
+        return before - packFile.length() - indexFile.length();
+    }
+
+    /** private HELP method. */
+
+    /** Write the fan-out table, sorted IDs, offsets and lengths, then rename into place. */
+    private static void writeIndex(TreeMap<String, long[]> entries, File target) {
+        File temp = join(target.getParentFile(), target.getName() + ".tmp");
+        int[] fanout = new int[256];
+        for (String id : entries.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(INDEX_MAGIC);
+            int total = 0;
+            for (int count : fanout) {
+                total += count;
+                out.writeInt(total);
+            }
+            for (String id : entries.keySet()) {
+                out.write(hexToBytes(id));
+            }
+            for (long[] entry : entries.values()) {
+                out.writeLong(entry[0]);
+            }
+            for (long[] entry : entries.values()) {
+                out.writeInt((int) entry[1]);
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException excp) {
+            throw error("Cannot write pack index: %s", excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Cannot write pack index: %s", excp.getMessage());
+        }
+    }
+
+    /** Map index and pack files, if they exist, and publish them as one new Mapping. */
+    private synchronized void load() {
+        indexStamp = stamp(indexFile);
+        if (!indexFile.isFile() || !packFile.isFile()) {
+            mapping = new Mapping(null, null, 0);
+            return;
+        }
+        ByteBuffer index = map(indexFile);
+        ByteBuffer data = map(packFile);
+        if (index.getInt(0) != INDEX_MAGIC || data.getInt(0) != PACK_MAGIC) {
+            throw error("Corrupted pack in %s.", packFile.getParent());
+        }
+        mapping = new Mapping(index, data, index.getInt(fanoutAt(255)));
+    }
+
+    /** Delete a directory of plain files, if it exists. */
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /** @return long array of size and modification time in milliseconds of FILE. */
+    private static long[] stamp(File file) {
+        return new long[]{file.length(), file.lastModified()};
+    }
+
+    /** Map a whole file read-only. */
+    private static ByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > MAX_PACK_BYTES) {
+                throw error("Cannot read %s: it is larger than %d bytes.", file.getName(),
+                        MAX_PACK_BYTES);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    private static int fanoutAt(int b) {
+        return 4 + b * 4;
+    }
+
+    /** The mapped index and pack data of one version of a pack, never changed once made. */
+    private static final class Mapping {
+        /** Mapped index, or null if there is no pack yet. */
+        private final ByteBuffer index;
+        /** Mapped pack data, or null if there is no pack yet. */
+        private final ByteBuffer data;
+        /** Number of objects in the pack. */
+        private final int size;
+
+        Mapping(ByteBuffer i, ByteBuffer d, int s) {
+            index = i;
+            data = d;
+            size = s;
+        }
+
+        /** @return a read-only view of a packed object, or null if it is not packed. */
+        ByteBuffer slice(String id) {
+            int pos = position(id);
+            if (pos < 0) {
+                return null;
+            }
+            int offset = (int) offset(pos);
+            return data.duplicate().position(offset).limit(offset + length(pos)).slice();
+        }
+
+        /** Binary search the position of a full SHA-1 ID, or -1 if not packed. */
+        int position(String id) {
+            if (size == 0 || id.length() != UID_LENGTH) {
+                return -1;
+            }
+            byte[] key = hexToBytes(id);
+            int first = key[0] & 0xff;
+            int lo = first == 0 ? 0 : index.getInt(fanoutAt(first - 1));
+            int hi = index.getInt(fanoutAt(first)) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareAt(mid, key);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Compare the SHA-1 ID at position POS with KEY in unsigned byte order. */
+        private int compareAt(int pos, byte[] key) {
+            int base = idOffset(pos);
+            for (int i = 0; i < ID_BYTES; i += 1) {
+                int cmp = (index.get(base + i) & 0xff) - (key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        /** @return String of SHA-1 ID at position POS. */
+        String idAt(int pos) {
+            byte[] bytes = new byte[ID_BYTES];
+            index.get(idOffset(pos), bytes);
+            return bytesToHex(bytes);
+        }
+
+        /** @return long of offset in the pack of the object at position POS. */
+        long offset(int pos) {
+            return index.getLong(INDEX_HEADER + size * ID_BYTES + pos * 8);
+        }
+
+        /** @return int of length of the object at position POS. */
+        int length(int pos) {
+            return index.getInt(INDEX_HEADER + size * (ID_BYTES + 8) + pos * 4);
+        }
+
+        private int idOffset(int pos) {
+            return INDEX_HEADER + pos * ID_BYTES;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/** Represents the refs of a gitlet directory: branches, remote branches and HEAD.
+ * @author ASmellyCat
+ * A ref is named by its path inside the gitlet directory, like refs/heads/master
+ * or refs/remote/origin/master, and holds a commit SHA-1 ID. It is stored:
+ * 1. loose, as the file at that path, written by every command that moves it, or
+ * 2. packed, as a line of packed-refs, written by gc.
+ * A loose ref overrides a packed ref with the same name.
+ *<pre>
+ * .gitlet
+ *    ├── HEAD            // ref: refs/heads/master
+ *    ├── packed-refs     // sorted lines of [SHA-1 ID] [ref name]
+ *    ├── refs            // loose refs
+ *    └── logs
+ *          └── refs      // reflog of each ref, lines of [old ID] [new ID] [time]\t[message]
+ *</pre>
+ * packed-refs and HEAD are read once per process, so looking up a ref costs one
+ * stat of its loose file and a hash lookup, and never a directory listing.
+ * They are read again if another process changed them.
+ * A ref that did not exist before a move has an old ID of forty zeros in its reflog.
+ */
+public class Refs {
+    /** Directory of local branches. */
+    static final String HEADS = "refs/heads";
+    /** Directory of remote branches, one subdirectory per remote. */
+    static final String REMOTES = "refs/remote";
+    /** Old ID in the reflog of a ref that did not exist. */
+    static final String NO_ID = "0".repeat(UID_LENGTH);
+
+    /** Refs already read by this process, with gitlet directory as key. */
+    private static final Map<File, Refs> OPENED = new ConcurrentHashMap<>();
+
+    /** The gitlet directory. */
+    private final File gitletDir;
+    /** The packed-refs file. */
+    private final File packedFile;
+    /** The HEAD file. */
+    private final File headFile;
+    /** Map of ref name as key and commit SHA-1 ID as value, from packed-refs. */
+    private final Map<String, String> packed = new HashMap<>();
+    /** Size and modification time of packed-refs when it was read. */
+    private long[] packedStamp;
+    /** Name of the ref HEAD points to. */
+    private String head;
+    /** Size and modification time of HEAD when it was read. */
+    private long[] headStamp;
+
+    /** Read the packed refs and HEAD of a gitlet directory. */
+    private Refs(File dir) {
+        gitletDir = dir;
+        packedFile = join(dir, "packed-refs");
+        headFile = join(dir, "HEAD");
+        packedStamp = stamp(packedFile);
+        if (packedFile.isFile()) {
+            for (String line : readContentsAsString(packedFile).split("\n")) {
+                if (!line.isEmpty()) {
+                    packed.put(line.substring(UID_LENGTH + 1), line.substring(0, UID_LENGTH));
+                }
+            }
+        }
+        headStamp = stamp(headFile);
+        if (headFile.isFile()) {
+            head = refOf(readContentsAsString(headFile).trim().substring("ref: ".length()));
+        }
+    }
+
+    /** get the refs of a gitlet directory, reading them only once per process. */
+    public static Refs of(File gitletDir) {
+        return OPENED.computeIfAbsent(gitletDir.getAbsoluteFile(), Refs::new);
+    }
+
+    /** Forget refs whose packed-refs or HEAD was changed by another process. */
+    public static void refresh() {
+        OPENED.values().removeIf(refs -> !Arrays.equals(refs.packedStamp, stamp(refs.packedFile))
+                || !Arrays.equals(refs.headStamp, stamp(refs.headFile)));
+    }
+
+    /**
+     * get the commit a ref points to.
+     * @param ref String of ref name.
+     * @return String of commit SHA-1 ID, or null if there is no such ref.
+     */
+    public String read(String ref) {
+        File loose = join(gitletDir, ref);
+        if (loose.isFile()) {
+            return readContentsAsString(loose).trim();
+        }
+        return packed.get(ref);
+    }
+
+    /** @return boolean of whether a ref exists. */
+    public boolean exists(String ref) {
+        return read(ref) != null;
+    }
+
+    /**
+     * Point a ref at a commit, and record the move in its reflog.
+     * The reflog line is written first and fsynced with the ref, so a ref never
+     * survives a crash without the line of its move; a line may name a move that
+     * a crash stopped.
+     * @param ref String of ref name.
+     * @param id String of commit SHA-1 ID.
+     * @param message String of the reason for the move.
+     */
+    public void update(String ref, String id, String message) {
+        String oldID = read(ref);
+        File log = logFile(ref);
+        log.getParentFile().mkdirs();
+        String line = (oldID == null ? NO_ID : oldID) + " " + id + " "
+                + System.currentTimeMillis() + "\t" + message + "\n";
+        try {
+            Files.write(log.toPath(), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw error("Cannot write reflog of %s: %s", ref, excp.getMessage());
+        }
+        WriteBatch.appended(log);
+        WriteBatch.publishFile(join(gitletDir, ref), id);
+    }
+
+    /** Delete a ref, whether loose or packed, and its reflog. */
+    public void delete(String ref) {
+        join(gitletDir, ref).delete();
+        if (packed.remove(ref) != null) {
+            writePacked();
+        }
+        logFile(ref).delete();
+    }
+
+    /**
+     * get the refs directly in a directory of refs.
+     * @param dir String of the directory, like refs/heads.
+     * @return List of ref names, sorted.
+     */
+    public List<String> names(String dir) {
+        TreeSet<String> names = new TreeSet<>();
+        List<String> loose = plainFilenamesIn(join(gitletDir, dir));
+        for (String name : loose == null ? List.<String>of() : loose) {
+            if (!name.startsWith(".")) {
+                names.add(dir + "/" + name);
+            }
+        }
+        for (String ref : packed.keySet()) {
+            if (ref.startsWith(dir + "/") && ref.indexOf('/', dir.length() + 1) < 0) {
+                names.add(ref);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** @return Map of every ref name as key and commit SHA-1 ID as value, sorted. */
+    public Map<String, String> all() {
+        Map<String, String> refs = new TreeMap<>(packed);
+        collectLoose(join(gitletDir, "refs"), "refs", refs);
+        return refs;
+    }
+
+    /** @return String of the name of the ref HEAD points to. */
+    public String head() {
+        return head;
+    }
+
+    /** @return String of SHA-1 ID of the commit HEAD points to. */
+    public String headID() {
+        return read(head);
+    }
+
+    /** Point HEAD at a ref. */
+    public void setHead(String ref) {
+        WriteBatch.publishFile(headFile, "ref: " + ref);
+        head = ref;
+        headStamp = stamp(headFile);
+    }
+
+    /**
+     * Move every ref into packed-refs, then delete the loose refs.
+     * Directories of refs are kept, so refs can be written into them again.
+     * @return int of number of refs packed.
+     */
+    public int pack() {
+        Map<String, String> refs = all();
+        packed.clear();
+        packed.putAll(refs);
+        writePacked();
+        for (String ref : refs.keySet()) {
+            join(gitletDir, ref).delete();
+        }
+        return refs.size();
+    }
+
+    /**
+     * get the reflog of a ref.
+     * @return List of lines of [old ID] [new ID] [time]\t[message], oldest first.
+     */
+    public List<String> log(String ref) {
+        File log = logFile(ref);
+        if (!log.isFile()) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<>();
+        for (String line : readContentsAsString(log).split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /** private HELP method. */
+
+    /** @return String of the ref name of a HEAD target, which older
+     *  repositories wrote as an absolute path of the branch file. */
+    private String refOf(String target) {
+        Path path = Path.of(target);
+        if (path.isAbsolute()) {
+            return gitletDir.toPath().toAbsolutePath().normalize().relativize(path.normalize())
+                    .toString().replace(File.separatorChar, '/');
+        }
+        return target;
+    }
+
+    /** @return File of the reflog of a ref. */
+    private File logFile(String ref) {
+        return join(gitletDir, "logs", ref);
+    }
+
+    /** Write the packed refs, sorted by name, in one rename. */
+    private void writePacked() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> entry : new TreeMap<>(packed).entrySet()) {
+            text.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        WriteBatch.publishFile(packedFile, text.toString());
+        packedStamp = stamp(packedFile);
+    }
+
+    /** Put the loose refs under DIR, named from REF, into REFS. */
+    private static void collectLoose(File dir, String ref, Map<String, String> refs) {
+        File[] entries = dir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.getName().startsWith(".")) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                collectLoose(entry, ref + "/" + entry.getName(), refs);
+            } else {
+                refs.put(ref + "/" + entry.getName(), readContentsAsString(entry).trim());
+            }
+        }
+    }
+
+    /** @return long array of size and modification time in milliseconds of FILE. */
+    private static long[] stamp(File file) {
+        return new long[]{file.length(), file.lastModified()};
+    }
+}
@@ -44,51 +44,42 @@ public class Remote implements Serializable {
         return remote.get(remoteName);
     }
 
-    /** fetch. */
+    /** fetch.
+     * Copies only the commits the local repository lacks, and their new objects. */
     public void fetch(String remoteName, String remoteBranchName) {
-        File remoteHeadDir = join(remote.get(remoteName), "refs/heads/");
-        File objectDir = join(remote.get(remoteName), "objects");
         if (!remote.get(remoteName).exists()) {
             exit("Remote directory not found.");
         }
-        if (!branchExists(remoteBranchName, remoteHeadDir)) {
+        String commitID = Refs.of(remote.get(remoteName))
+                .read(Refs.HEADS + "/" + remoteBranchName);
+        if (commitID == null) {
             exit("That remote does not have that branch.");
         }
-        String commitID = getCommitIDByBranchName(remoteBranchName, remoteHeadDir);
-        Set<Commit> commitSet = getAllParentCommits(commitID, objectDir);
-        for (Commit commit : commitSet) {
-            commit.updatePath(GITLET_DIR);
-            for (String fileID : commit.getFiles().values()) {
-                getBlob(fileID, objectDir).updatePath();
-            }
-        }
-        writeContents(join(REMOTE_DIR, remoteName, remoteBranchName), commitID);
+        copyMissingCommits(commitID, remote.get(remoteName), GITLET_DIR);
+        Refs.of(GITLET_DIR).update(refName(remoteName + "/" + remoteBranchName), commitID,
+                "fetch: " + remoteName + " " + remoteBranchName);
     }
 
 
-    /** push */
+    /** push.
+     * The remote branch head must be an ancestor of the current commit;
+     * only the commits the remote lacks, and their new objects, are copied. */
     public void push(String remoteName, String remoteBranchName) {
-        File remoteHeadDir = join(remote.get(remoteName), "refs/heads/");
         if (!remote.get(remoteName).exists()) {
             exit("Remote directory not found.");
         }
-        String remoteCommitID = getCommitIDByBranchName(remoteBranchName, remoteHeadDir);
-        Set<String> parentIDs = getAllParentCommitsID(getCurrentCommitID());
-        if (!parentIDs.contains(remoteCommitID)) {
+        Refs remoteRefs = Refs.of(remote.get(remoteName));
+        String remoteRef = Refs.HEADS + "/" + remoteBranchName;
+        String remoteCommitID = remoteRefs.read(remoteRef);
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        int remoteHead = graph.indexOf(remoteCommitID);
+        if (remoteHead == CommitGraph.NONE
+                || graph.mergeBase(graph.indexOf(getCurrentCommitID()), remoteHead) != remoteHead) {
             exit("Please pull down remote changes before pushing.");
         }
-        Commit commit = getCommit(getCurrentCommitID());
-        while (!commit.getCommitID().equals(remoteCommitID)) {
-            commit.updatePath(remote.get(remoteName));
-            for (String fileID : commit.getFiles().values()) {
-                getBlob(fileID).updatePath(remote.get(remoteName));
-            }
-            commit = getCommit(commit.getParentID());
-        }
-        File branchFile = join(remote.get(remoteName), "refs/heads", remoteBranchName);
-        writeContents(branchFile, getCurrentCommitID());
-        writeContents(join(remote.get(remoteName), "HEAD"), "ref: "
-                + branchFile.getAbsolutePath());
+        copyMissingCommits(getCurrentCommitID(), GITLET_DIR, remote.get(remoteName));
+        remoteRefs.update(remoteRef, getCurrentCommitID(), "push: from " + CWD.getPath());
+        remoteRefs.setHead(remoteRef);
     }
 
     /** save this remote instance. */
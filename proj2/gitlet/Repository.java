@@ -1,7 +1,11 @@
 package gitlet;
 
 import java.io.File;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static gitlet.MyUtils.*;
@@ -14,8 +18,12 @@ import static gitlet.HelpMethod.*;
  * .gitlet
  *    ├── HEAD (file)       // Where is the head commit ref: refs/heads/master
  *    ├── index (file)       // Stage area. Serialized objects are saved into index file.
- *    ├── commits (file)    // Store the SHA-1 ID of all the commits.
+ *    ├── commit-graph (file)     // One fixed-width record per commit: ID, parents, generation, time.
+ *    ├── commit-graph.msg (file) // Commit messages the commit-graph records point to.
  *    ├── objects  (directory)   // hashtable with SHA-1 of Serialized objects (blob, commit)
+ *    │     └── pack (directory) // objects.pack and its sorted objects.idx, made by repack
+ *    ├── packed-refs (file) // Lines of [SHA-1 ID] [ref name], written by gc.
+ *    ├── logs  (directory)  // Reflog of each ref, appended to whenever the ref moves.
  *    ├──refs
  *       └── heads
  *              └── branches (file)  // SHA-1 of current commit that head pointer points to
@@ -62,10 +70,6 @@ public class Repository {
      * The index file.
      */
     public static final File INDEX = join(GITLET_DIR, "index");
-    /**
-     * The file that contains all SHA-1 code of all commits.
-     */
-    public static final File COMMITS = join(GITLET_DIR, "commits");
     /**
      * remote address file.
      * */
@@ -132,9 +136,35 @@ public class Repository {
      *                 5. runtime should be lgN.
      */
     public static void add(String fileName) {
+        add(List.of(fileName), false);
+    }
+
+    /**
+     * add [file name or directory] ...
+     * Adds many files, or every file under directories, in one go.
+     * They are hashed in parallel and the staging area is written only once.
+     * @param fileNames List of names of files or directories that need to be added.
+     * @param stats boolean of whether to report the throughput.
+     */
+    public static void add(List<String> fileNames, boolean stats) {
         gitletRepoExists();
-        fileExists(fileName);
-        getStagingArea().add(getFileByName(fileName));
+        List<File> files = new ArrayList<>();
+        for (String fileName : fileNames) {
+            File file = getFileByName(fileName);
+            if (file.isDirectory()) {
+                for (String filePath : workingFiles(file)) {
+                    files.add(join(filePath));
+                }
+            } else {
+                fileExists(fileName);
+                files.add(file);
+            }
+        }
+        long start = System.nanoTime();
+        getStagingArea().add(files);
+        if (stats) {
+            printThroughput(files, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -166,16 +196,12 @@ public class Repository {
      * The staging area is cleared after a commit.
      */
     public static void commit(String message) {
-        commit(message, null);
-    }
-
-    private static void commit(String message, String secondParentID) {
         StagingArea stageArea = getStagingArea();
         if (stageArea.getStagedFiles().isEmpty() && stageArea.getRemovedFiles().isEmpty()) {
             exit("No changes added to the commit.");
         }
-        Map<String, String> tracked = getStagingArea().toCommit();
-        new Commit(message, getCurrentCommitID(), secondParentID, tracked);
+        String treeID = stageArea.toCommit();
+        new Commit(message, getCurrentCommitID(), null, stageArea.getTrackedFileIDs(), treeID);
     }
 
     /**
@@ -192,7 +218,18 @@ public class Repository {
      * initial commit
      */
     public static void log() {
-        printLog(getCommit(getCurrentCommitID()));
+        log(-1, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * log -n [count] --since [date] --until [date]
+     * Like log, but prints at most LIMIT commits made between SINCE and UNTIL.
+     * @param limit int of maximum number of commits, or -1 for all.
+     * @param since long of earliest timestamp in milliseconds.
+     * @param until long of latest timestamp in milliseconds.
+     */
+    public static void log(int limit, long since, long until) {
+        printLog(getCurrentCommitID(), limit, since, until);
     }
 
     /**
@@ -200,9 +237,13 @@ public class Repository {
      * Like log, except displays information about all commits ever made.
      */
     public static void globalLog() {
-        for (Commit commit : getAllCommits()) {
-            printOneLog(commit);
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        PrintWriter out = logWriter();
+        DateFormat format = Commit.timestampFormat();
+        for (int i = 0; i < graph.size(); i += 1) {
+            printOneLog(out, format, graph, i);
         }
+        out.flush();
     }
 
     /**
@@ -210,18 +251,63 @@ public class Repository {
      * Prints out the ids of all commits that have the given commit message.
      * it prints the ids out on separate lines.
      * If no such commit exists, prints the error message.
-     */
-    public static void find(String message) {
-        boolean flag = true;
-        for (Commit commit : getAllCommits()) {
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commit.getCommitID());
-                flag = false;
-            }
+     * Whole messages, words and substrings are looked up in the MessageIndex.
+     * @param query String of message, word or substring to look for.
+     * @param mode String of "exact", "token" or "substring".
+     */
+    public static void find(String query, String mode) {
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        List<Integer> found;
+        if (mode.equals("token")) {
+            found = MessageIndex.findToken(graph, query);
+        } else if (mode.equals("substring")) {
+            found = MessageIndex.findSubstring(graph, query);
+        } else {
+            found = MessageIndex.findExact(graph, query);
         }
-        if (flag) {
+        if (found.isEmpty()) {
             exit("Found no commit with that message.");
         }
+        for (int i : found) {
+            System.out.println(graph.id(i));
+        }
+    }
+
+    /**
+     * diff
+     * Prints the unified diff of working files against the index.
+     * Only files in the index are compared, like status does for modified files.
+     */
+    public static void diff() {
+        StagingArea stageArea = getStagingArea();
+        Map<String, String> indexed = stageArea.getIndexedFiles();
+        Map<String, String> working = new HashMap<>();
+        for (String filePath : indexed.keySet()) {
+            String fileID = stageArea.getWorkingFileID(filePath);
+            if (fileID != null) {
+                working.put(filePath, fileID);
+            }
+        }
+        printDiff(indexed, working, true);
+    }
+
+    /**
+     * diff --cached
+     * Prints the unified diff of the index against the HEAD commit.
+     */
+    public static void diffCached() {
+        Commit head = getCommit(getCurrentCommitID(), OBJECT_DIR);
+        printDiff(head.getFiles(), getStagingArea().getIndexedFiles(), false);
+    }
+
+    /**
+     * diff [commit] [commit]
+     * Prints the unified diff between two commits or branches.
+     */
+    public static void diff(String from, String to) {
+        Commit fromCommit = getCommit(resolveCommitID(from), OBJECT_DIR);
+        Commit toCommit = getCommit(resolveCommitID(to), OBJECT_DIR);
+        printDiff(fromCommit.getFiles(), toCommit.getFiles(), false);
     }
 
     /**
@@ -296,7 +382,7 @@ public class Repository {
      * The staging area is cleared, unless the checked-out branch is the current branch.
      */
     public static void checkoutBranch(String branchName) {
-        if (!branchExists(correctBranchName(branchName), correctBranchDir(branchName))) {
+        if (!branchExists(branchName)) {
             exit("No such branch exists.");
         }
         if (ifActiveBranch(branchName)) {
@@ -320,7 +406,8 @@ public class Repository {
         if (branchExists(branchName)) {
             exit("A branch with that name already exists.");
         }
-        writeContents(createBranchFile(branchName), getCurrentCommitID());
+        Refs.of(GITLET_DIR).update(refName(branchName), getCurrentCommitID(),
+                "branch: Created from HEAD");
     }
 
     /**
@@ -334,11 +421,10 @@ public class Repository {
         if (!branchExists(branchName)) {
             exit("A branch with that name does not exist.");
         }
-        if (branchName.equals(getActiveBranchFile().getName())) {
+        if (ifActiveBranch(branchName)) {
             exit("Cannot remove the current branch.");
         }
-        getBranchFile(branchName).delete();
-
+        Refs.of(GITLET_DIR).delete(refName(branchName));
     }
 
     /**
@@ -356,8 +442,9 @@ public class Repository {
      * perform this check before doing anything else.
      */
     public static void reset(String commitID) {
+        commitID = getCommit(commitID).getCommitID();
         resetACommit(commitID);
-        writeContents(getActiveBranchFile(), commitID);
+        moveActiveBranch(commitID, "reset: moving to " + commitID);
     }
 
     /**
@@ -393,10 +480,18 @@ public class Repository {
      * they record as parents both the head of the current branch
      * (called the first parent)
      * and the head of the branch given on the command line to be merged in.
+     * <p>
+     * The whole merge is planned in memory first, with the index read once;
+     * files are then written in parallel, and restored if a write fails.
+     * The merge commit and its objects are published at once, then the index is
+     * saved and the branch moved last, each by the publishFile sequence of WriteBatch.
+     * A crash before the branch moves leaves the merge commit unreferenced and the
+     * index on its tree; reset to the current commit brings back the index and files.
+     * A fast-forward moves the current branch to the given commit.
      */
 
     public static void merge(String branchName) {
-        if (!branchExists(correctBranchName(branchName), correctBranchDir(branchName))) {
+        if (!branchExists(branchName)) {
             exit("A branch with that name does not exist.");
         }
         if (ifActiveBranch(branchName)) {
@@ -407,29 +502,97 @@ public class Repository {
         }
         Commit otherCommit = getCommit(getCommitIDByBranchName(branchName));
         Commit headCommit = getCommit(getCurrentCommitID());
-        Commit splitCommit = getSplitCommit(headCommit, otherCommit);
+        long start = Trace.start();
+        Commit splitCommit = getCommit(getSplitCommitID(headCommit.getCommitID(),
+                otherCommit.getCommitID()));
+        Trace.phase("merge base", start);
         String otherID = otherCommit.getCommitID();
         String headID = headCommit.getCommitID();
         String splitID = splitCommit.getCommitID();
         if (splitID.equals(headID)) {
-            checkoutBranch(branchName);
+            resetACommit(otherID);
+            moveActiveBranch(otherID, "merge " + branchName + ": Fast-forward");
             System.out.print("Current branch fast-forwarded.");
         } else if (splitID.equals(otherID)) {
             System.out.println("Given branch is an ancestor of the current branch.");
         } else {
-            Map<String, String> splitTracked = splitCommit.getFiles();
-            Map<String, String> headTracked = headCommit.getFiles();
-            Map<String, String> otherTracked = otherCommit.getFiles();
-            boolean isConflict = toMerge(splitTracked, headTracked, otherTracked);
-            //boolean isConflict = toMerge(splitCommit, headCommit, otherCommit);
-            commit("Merged " + branchName + " into " + getActiveBranchFile().getName()
-                    + ".", otherCommit.getCommitID());
-            if (isConflict) {
+            start = Trace.start();
+            MergePlan plan = new MergePlan(splitCommit.getFiles(), headCommit.getFiles(),
+                    otherCommit.getFiles());
+            Trace.phase("merge plan", start);
+            if (plan.isEmpty()) {
+                exit("No changes added to the commit.");
+            }
+            start = Trace.start();
+            plan.apply();
+            Trace.phase("merge apply", start);
+            String treeID = Commit.writeTree(plan.getMerged());
+            new Commit("Merged " + branchName + " into " + getActiveBranchName()
+                    + ".", headID, otherID, plan.getMerged(), treeID, () -> getStagingArea()
+                    .updateTracked(plan.getMerged(), treeID, plan.touchedFiles()));
+            if (plan.hasConflict()) {
                 System.out.print("Encountered a merge conflict.");
             }
+        }
+    }
+    /**
+     * merge-base [branch name or commit id] [branch name or commit id]
+     * Prints the SHA-1 ID of the latest common ancestor of the two commits,
+     * or of the given one and the current commit if only one is given,
+     * followed by how many commits the walk visited.
+     */
+    public static void mergeBase(List<String> names) {
+        String headID = names.size() == 2 ? resolveCommitID(names.get(1))
+                : getCurrentCommitID();
+        String otherID = resolveCommitID(names.get(0));
+        CommitGraph graph = CommitGraph.of(GITLET_DIR);
+        int base = graph.mergeBase(graph.indexOf(headID), graph.indexOf(otherID));
+        if (base == CommitGraph.NONE) {
+            exit("No common ancestor.");
+        }
+        System.out.println(graph.id(base));
+        System.out.println("Visited " + graph.visitedCount() + " commits.");
+    }
 
+    /**
+     * repack
+     * Folds all loose objects into the append-only pack file of object directory,
+     * and deletes the loose copies.
+     * Packed objects are read through a memory-mapped, sorted index,
+     * so a lookup no longer opens one file per object.
+     */
+    public static void repack() {
+        repackObjects(OBJECT_DIR);
+    }
+
+    /**
+     * gc
+     * Deletes every object that no branch, remote branch or staged file can reach,
+     * drops unreachable commits from the commit graph, and rewrites the pack
+     * without them. Prints the number of objects removed and bytes reclaimed.
+     */
+    public static void gc() {
+        GarbageCollector.collect();
+    }
+
+    /**
+     * reflog [branch name]
+     * Prints every move of a branch, or of the current branch if none is given,
+     * newest first, as "[commit id] [branch]@{[n]}: [reason]".
+     */
+    public static void reflog(List<String> names) {
+        String branchName = names.isEmpty() ? getActiveBranchName() : names.get(0);
+        if (!branchExists(branchName)) {
+            exit("A branch with that name does not exist.");
+        }
+        List<String> lines = Refs.of(GITLET_DIR).log(refName(branchName));
+        for (int n = 0; n < lines.size(); n += 1) {
+            String line = lines.get(lines.size() - 1 - n);
+            System.out.println(line.substring(UID_LENGTH + 1, UID_LENGTH + 8) + " " + branchName
+                    + "@{" + n + "}: " + line.substring(line.indexOf('\t') + 1));
         }
     }
+
     /**
      * add-remote
      * Saves the given login information under the given remote name.
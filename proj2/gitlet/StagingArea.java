@@ -1,11 +1,20 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 import static gitlet.MyUtils.*;
+import static gitlet.Repository.OBJECT_DIR;
 
 /**Represents a staging area
  * @author ASmellyCat
@@ -13,25 +22,87 @@ import static gitlet.MyUtils.*;
  * 1. addition staging area
  * 2. removal staging area
  * 3. tracked files
+ * 4. stat cache of working files, so unchanged files are not rehashed
+ * 5. SHA-1 ID of the tree of the tracked files, when they are those of a commit
+ *
+ * Staged contents are already in the object store, so the index file is
+ * only a compact binary table of paths and blob IDs:
+ *<pre>
+ * index
+ *    ├── magic and version           (int, int)
+ *    ├── tree:    flag, then [SHA-1 ID]
+ *    ├── tracked: count, then [path][SHA-1 ID] ...
+ *    ├── added:   count, then [path][SHA-1 ID] ...
+ *    ├── removed: count, then [path] ...
+ *    └── stats:   count, then [path][size][mtime][file key][recorded][SHA-1 ID] ...
+ *</pre>
+ * Paths are relative to the working directory, and SHA-1 IDs take 20 bytes.
  */
 
-public class StagingArea implements Serializable {
+public class StagingArea {
+    /** Header of the index file. */
+    private static final int INDEX_MAGIC = 0x47495831; // "GIX1"
+    /** Version of the index file. */
+    private static final int INDEX_VERSION = 2;
+    /** The staging area already read by this process. */
+    private static StagingArea current;
+    /** Size and modification time of the index file when it was last read or saved. */
+    private static long[] currentStamp;
 
-    /** Map of added blobs with filePath as key and blob as values. */
-    private final Map<String, Blob> added;
+    /** Map of added files with filePath as key and blob SHA-1 ID as values. */
+    private final Map<String, String> added;
 
     /** Set of removed files with file path as key. */
     private final Set<String> removed;
     /** Set of tracked files with filepath as key and fileID(SHA1) as values. */
     private final Map<String, String> tracked;
+    /** Map of cached stat data with filepath as key and file stat as values. */
+    private final Map<String, FileStat> stats;
+    /** SHA-1 ID of the tree holding exactly the tracked files, or null if unknown. */
+    private String treeID;
     /**
      * Create a Staging object with specified parameters.
      */
     public StagingArea() {
-        added = new HashMap<>();
-        removed = new HashSet<>();
-        tracked = new HashMap<>();
-        save();
+        this(true);
+    }
+
+    /** Create an empty Staging object, and save it if asked. */
+    private StagingArea(boolean toSave) {
+        added = new TreeMap<>();
+        removed = new TreeSet<>();
+        tracked = new TreeMap<>();
+        stats = new HashMap<>();
+        if (toSave) {
+            save();
+        }
+    }
+
+    /**
+     * read the staging area from index file, only once per process.
+     * @return StagingArea instance.
+     */
+    public static StagingArea read() {
+        if (current == null) {
+            long start = Trace.start();
+            current = decode(readContents(Repository.INDEX));
+            currentStamp = stamp(Repository.INDEX);
+            Trace.indexLoaded();
+            Trace.phase("index read", start);
+        }
+        return current;
+    }
+
+    /** Forget the staging area read before, so the next command reads the index again. */
+    public static void forget() {
+        current = null;
+    }
+
+    /** Forget the staging area read before, if another process has changed the index since. */
+    public static void refresh() {
+        if (current != null && !Arrays.equals(currentStamp, stamp(Repository.INDEX))) {
+            current = null;
+        }
     }
 
     /**
@@ -42,17 +113,33 @@ public class StagingArea implements Serializable {
      * 3. runtime should be lgN.
      */
     public void add(File file) {
-        Blob blob = new Blob(file);
-        String filePath = blob.absolutePath();
-        if (isRemoved(filePath)) {
-            removed.remove(filePath);
-        }
-        if (!isModified(blob)) {
-            if (isAdded(filePath)) {
-                added.remove(filePath);
-            }
-        } else {
-            added.put(filePath, blob);
+        add(List.of(file));
+    }
+
+    /**
+     * Add many files to the staging addition area with a single index write.
+     * Files are hashed, and new contents compressed into the object store,
+     * in parallel on the common ForkJoin pool. A new version of a tracked file
+     * may be stored as a delta against its tracked version.
+     * The results are then merged into this staging area, which is saved once.
+     * @param files List of File that need to be added.
+     */
+    public void add(List<File> files) {
+        Map<String, FileStat> refreshed = new ConcurrentHashMap<>();
+        long start = Trace.start();
+        List<Blob> blobs = files.parallelStream()
+                .map(file -> new Blob(file, workingFileID(file, refreshed)))
+                .collect(Collectors.toList());
+        Trace.phase("hash", start);
+        start = Trace.start();
+        blobs.stream().filter(this::isModified)
+                .collect(Collectors.toMap(Blob::shaID, blob -> blob, (a, b) -> a))
+                .values().parallelStream()
+                .forEach(blob -> blob.save(OBJECT_DIR, tracked.get(blob.absolutePath())));
+        Trace.phase("store", start);
+        stats.putAll(refreshed);
+        for (Blob blob : blobs) {
+            stage(blob);
         }
         save();
     }
@@ -72,7 +159,7 @@ public class StagingArea implements Serializable {
         }
         if (isTracked(filePath)) {
             removed.add(filePath);
-            restrictedDelete(filePath);
+            deleteWorkingFile(filePath);
             flag = true;
         }
         save();
@@ -90,18 +177,33 @@ public class StagingArea implements Serializable {
         if (removed.contains(filePath)) {
             removed.remove(filePath);
         }
-        tracked.put(filePath, fileID);
+        if (!fileID.equals(tracked.put(filePath, fileID))) {
+            treeID = null;
+        }
+        recordStat(filePath, fileID);
         save();
 
     }
     /**
-     * Change all current tracked files to tracked files of a given branch points to.
-     * @
+     * Make the tracked files of a checked-out, reset or merge commit the tracked files,
+     * with nothing staged, in a single index write. Only files the command wrote
+     * or removed have their stat data refreshed; the cached stat data of every
+     * other file still describes its contents.
+     * @param t Map of tracked files of the commit.
+     * @param id String of SHA-1 ID of the tree of the commit.
+     * @param touched List of files the command wrote or removed.
      * */
-    public void updateAllTracked(Map<String, String> t) {
+    public void updateTracked(Map<String, String> t, String id, List<String> touched) {
         tracked.clear();
         tracked.putAll(t);
+        treeID = id;
         clear();
+        for (String filePath : touched) {
+            stats.remove(filePath);
+            if (t.containsKey(filePath)) {
+                recordStat(filePath, t.get(filePath));
+            }
+        }
         save();
     }
 
@@ -110,18 +212,71 @@ public class StagingArea implements Serializable {
      * 1. each commit add the files in addition staging.
      * 2. remove files in removed staging area.
      * 3. clear the staging area.
+     * The trees of the tracked files are written first, so the index names its tree.
+     * @return String of SHA-1 ID of the tree of the tracked files.
      */
-    public Map<String, String> toCommit() {
-        for (Map.Entry<String, Blob> entry : added.entrySet()) {
-            tracked.put(entry.getKey(), entry.getValue().shaID());
-            entry.getValue().save();
-        }
+    public String toCommit() {
+        tracked.putAll(added);
         for (String filePath : removed) {
             tracked.remove(filePath);
         }
+        treeID = Commit.writeTree(tracked);
         clear();
         save();
-        return tracked;
+        return treeID;
+    }
+
+    /**
+     * get the files the next commit would track, without changing the staging area.
+     * @return Map with filepath as key and blob SHA-1 ID as value.
+     */
+    public Map<String, String> getIndexedFiles() {
+        Map<String, String> indexed = new HashMap<>(tracked);
+        indexed.putAll(added);
+        for (String filePath : removed) {
+            indexed.remove(filePath);
+        }
+        return indexed;
+    }
+
+    /**
+     * get the blob SHA-1 ID of a working file, reusing its cached stat data if it is unchanged.
+     * @return String of SHA-1 ID, or null if the file does not exist.
+     */
+    public String getWorkingFileID(String filePath) {
+        File file = join(filePath);
+        return file.isFile() ? workingFileID(file, new HashMap<>()) : null;
+    }
+
+    /**
+     * get the files whose working copy is missing or differs from a given blob.
+     * Files are hashed in parallel, and only if their stat data changed since it
+     * was cached; the new stat data is kept in the stat cache.
+     * @param expected Map of filepath as key and expected blob SHA-1 ID as value.
+     * @return List of file paths whose working copy does not match.
+     */
+    public List<String> getMismatchedFiles(Map<String, String> expected) {
+        Map<String, FileStat> refreshed = new ConcurrentHashMap<>();
+        List<String> mismatched = expected.entrySet().parallelStream()
+                .filter(entry -> {
+                    File file = join(entry.getKey());
+                    return !file.isFile()
+                            || !entry.getValue().equals(workingFileID(file, refreshed));
+                })
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        stats.putAll(refreshed);
+        return mismatched;
+    }
+
+    /** @return Map of tracked files with filepath as key and blob SHA-1 ID as value. */
+    public Map<String, String> getTrackedFileIDs() {
+        return new HashMap<>(tracked);
+    }
+
+    /** @return String of SHA-1 ID of the tree holding exactly the tracked files, or null. */
+    public String getTreeID() {
+        return treeID;
     }
 
     /** get list of staged files path*/
@@ -147,6 +302,8 @@ public class StagingArea implements Serializable {
      * and deleted from the working directory.
      * */
     public List<String> getModifiedFilesButNotStaged() {
+        long start = Trace.start();
+        Map<String, FileStat> refreshed = new HashMap<>();
         List<String> returnFileNames = new ArrayList<>();
         List<String> fileNames = new ArrayList<>(tracked.keySet());
         for (String filePath : fileNames) {
@@ -155,7 +312,7 @@ public class StagingArea implements Serializable {
             boolean istracked = isTracked(filePath);
             boolean isstaged = isAdded(filePath);
             if (workFile.exists()) {
-                Blob workBlob = new Blob(workFile);
+                Blob workBlob = new Blob(workFile, workingFileID(workFile, refreshed));
                 boolean ismodified = isModified(workBlob);
                 boolean isstagedButModified = isAddedButModified(workBlob);
                 if (ismodified && !isstaged) {
@@ -171,20 +328,24 @@ public class StagingArea implements Serializable {
                 }
             }
         }
+        stats.putAll(refreshed);
+        Trace.phase("scan tracked", start);
+        boolean pruned = stats.keySet().removeIf(filePath -> !isTracked(filePath)
+                && !isAdded(filePath));
+        if (!refreshed.isEmpty() || pruned) {
+            save();
+        }
         return returnFileNames;
     }
 
     /** Files present in the working directory but neither staged for addition nor tracked.
      * This includes files that have been staged for removal,
      * but then re-created without Gitlet’s knowledge.
-     * Ignore any subdirectories that may have been introduced,
-     * since Gitlet does not deal with them. */
+     * Files in subdirectories are included, and the gitlet directory is skipped. */
     public List<String> getUntrackedFiles() {
+        long start = Trace.start();
         List<String> returnFileNames = new ArrayList<>();
-        List<String> fileNames = new ArrayList<>(plainFilenamesIn(Repository.CWD));
-        for (String fileName : fileNames) {
-            File file = join(fileName);
-            String filePath = file.getAbsolutePath();
+        for (String filePath : workingFiles(Repository.CWD)) {
             boolean isstaged = isAdded(filePath);
             boolean istracked = isTracked(filePath);
             boolean isremoved = isRemoved(filePath);
@@ -194,6 +355,7 @@ public class StagingArea implements Serializable {
                 returnFileNames.add(filePath);
             }
         }
+        Trace.phase("scan untracked", start);
         return returnFileNames;
     }
 
@@ -203,12 +365,59 @@ public class StagingArea implements Serializable {
     }
 
     /** private Help method. /
+    /**
+     * Get the blob SHA-1 ID of a working file, safe to call from many threads.
+     * The file is rehashed only if its stat data changed since it was cached,
+     * and its new stat data is put into REFRESHED.
+     * @return String of SHA-1 ID of the file contents.
+     */
+    private String workingFileID(File file, Map<String, FileStat> refreshed) {
+        String filePath = file.getAbsolutePath();
+        FileStat current = FileStat.of(file, null);
+        FileStat cached = stats.get(filePath);
+        if (cached != null && cached.matches(current)) {
+            return cached.getBlobID();
+        }
+        String fileID = new Blob(file).shaID();
+        if (current != null) {
+            refreshed.put(filePath, current.withBlobID(fileID));
+        }
+        return fileID;
+    }
+
+    /**
+     * Stage one hashed file whose contents are already in the object store.
+     * 1. The file will no longer be staged for removal.
+     * 2. Unstage it if it is identical to the current commit.
+     */
+    private void stage(Blob blob) {
+        String filePath = blob.absolutePath();
+        if (isRemoved(filePath)) {
+            removed.remove(filePath);
+        }
+        if (!isModified(blob)) {
+            if (isAdded(filePath)) {
+                added.remove(filePath);
+            }
+        } else {
+            added.put(filePath, blob.shaID());
+        }
+    }
+
+    /** Cache the stat data of a working file just written with a known blob SHA-1 ID. */
+    private void recordStat(String filePath, String fileID) {
+        FileStat current = FileStat.of(join(filePath), fileID);
+        if (current != null) {
+            stats.put(filePath, current);
+        }
+    }
+
     /**
      * Judge whether the file has been modified from last commit.
      * @return boolean of whether the file is modified.
      */
     private boolean isModified(Blob blob) {
-        return !tracked.containsValue(blob.shaID());
+        return !blob.shaID().equals(tracked.get(blob.absolutePath()));
     }
     /**
      * Judge whether the file with the same path has been added from last commit.
@@ -220,7 +429,8 @@ public class StagingArea implements Serializable {
 
     /** Staged for addition, but with different contents than a given file. */
     private boolean isAddedButModified(Blob blob) {
-        return added.containsKey(blob.absolutePath()) && (!added.containsValue(blob.shaID()));
+        String addedID = added.get(blob.absolutePath());
+        return addedID != null && !addedID.equals(blob.shaID());
     }
     /**
      * Judge whether the file has the same path been removed from last commit.
@@ -237,9 +447,114 @@ public class StagingArea implements Serializable {
         return tracked.containsKey(filePath);
     }
 
-    /** Save this Staging Area instance. */
+    /** Save this Staging Area instance, after the objects it names, in one rename. */
     private void save() {
-        writeObject(Repository.INDEX, this);
+        long start = Trace.start();
+        WriteBatch.publishFile(Repository.INDEX, encode());
+        Trace.phase("index write", start);
+        current = this;
+        currentStamp = stamp(Repository.INDEX);
+    }
+
+    /** @return long array of size and modification time in nanoseconds of FILE. */
+    private static long[] stamp(File file) {
+        Trace.statted();
+        try {
+            return new long[]{file.length(), Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS)};
+        } catch (IOException excp) {
+            return new long[]{-1, -1};
+        }
+    }
+
+    /** @return byte array of the binary index table of this staging area. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeBoolean(treeID != null);
+            if (treeID != null) {
+                out.write(hexToBytes(treeID));
+            }
+            writeEntries(out, tracked);
+            writeEntries(out, added);
+            out.writeInt(removed.size());
+            for (String filePath : removed) {
+                out.writeUTF(relativePath(filePath));
+            }
+            out.writeInt(stats.size());
+            for (Map.Entry<String, FileStat> entry : stats.entrySet()) {
+                FileStat stat = entry.getValue();
+                out.writeUTF(relativePath(entry.getKey()));
+                out.writeLong(stat.getSize());
+                out.writeLong(stat.getModified());
+                out.writeUTF(stat.getFileKey());
+                out.writeLong(stat.getRecorded());
+                out.write(hexToBytes(stat.getBlobID()));
+            }
+        } catch (IOException excp) {
+            throw error("Internal error writing index.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return StagingArea read back from the binary index table in BYTES. */
+    private static StagingArea decode(byte[] bytes) {
+        StagingArea area = new StagingArea(false);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != INDEX_MAGIC || version != INDEX_VERSION) {
+                throw error("Unrecognized index file.");
+            }
+            if (in.readBoolean()) {
+                area.treeID = readID(in);
+            }
+            readEntries(in, area.tracked);
+            readEntries(in, area.added);
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                area.removed.add(absolutePath(in.readUTF()));
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String filePath = absolutePath(in.readUTF());
+                long size = in.readLong();
+                long modified = in.readLong();
+                String fileKey = in.readUTF();
+                long recorded = in.readLong();
+                area.stats.put(filePath, new FileStat(size, modified, fileKey, recorded,
+                        readID(in)));
+            }
+        } catch (IOException excp) {
+            throw error("Corrupted index file.");
+        }
+        return area;
+    }
+
+    /** Write a count, then each path and SHA-1 ID of ENTRIES. */
+    private static void writeEntries(DataOutputStream out, Map<String, String> entries)
+            throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            out.writeUTF(relativePath(entry.getKey()));
+            out.write(hexToBytes(entry.getValue()));
+        }
+    }
+
+    /** Read a count, then each path and SHA-1 ID into ENTRIES. */
+    private static void readEntries(DataInputStream in, Map<String, String> entries)
+            throws IOException {
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            String filePath = absolutePath(in.readUTF());
+            entries.put(filePath, readID(in));
+        }
+    }
+
+    /** Read a binary SHA-1 ID. */
+    private static String readID(DataInputStream in) throws IOException {
+        byte[] id = new byte[Pack.ID_BYTES];
+        in.readFully(id);
+        return bytesToHex(id);
     }
     /**
      * Clear the staging area.
@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Represents the timing and I/O counters of one command, for --trace.
+ * @author ASmellyCat
+ * Tracing is on for a command run as "gitlet --trace [command] ...", or for
+ * every command while the environment variable GITLET_TRACE is set to
+ * anything but "0". When the command ends, one line of JSON is written to
+ * standard error:
+ *<pre>
+ * {"command":"status","ms":41.2,"phases":{"index read":0.8,...},
+ *  "objects_read":0,"objects_written":0,"bytes_hashed":0,"files_statted":12,"index_loads":1}
+ *</pre>
+ * Phases are the wall time in milliseconds of named steps, summed if a step runs
+ * more than once. A phase may hold another, like publish inside index write.
+ * Counters may be bumped from any thread, and cost one volatile read when
+ * tracing is off.
+ */
+public class Trace {
+    /** The command line flag that turns tracing on. */
+    static final String FLAG = "--trace";
+    /** The environment variable that turns tracing on for every command. */
+    static final String ENV = "GITLET_TRACE";
+
+    /** Objects opened for reading from a loose file or a pack. */
+    private static final LongAdder OBJECTS_READ = new LongAdder();
+    /** Objects written into the object store. */
+    private static final LongAdder OBJECTS_WRITTEN = new LongAdder();
+    /** Bytes fed to SHA-1. */
+    private static final LongAdder BYTES_HASHED = new LongAdder();
+    /** Working files and gitlet files whose stat data was read. */
+    private static final LongAdder FILES_STATTED = new LongAdder();
+    /** Times the index was read and decoded. */
+    private static final LongAdder INDEX_LOADS = new LongAdder();
+    /** Map of phase name as key and nanoseconds spent as value, in the order first seen. */
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>();
+
+    /** Whether the current command is traced. */
+    private static volatile boolean enabled = false;
+    /** Name of the current command. */
+    private static String command;
+    /** Start of the current command in nanoseconds. */
+    private static long started;
+
+    /**
+     * Put the trace flag in front of a command line if the environment asks
+     * for tracing, so a command forwarded to the daemon is traced as well.
+     * @return String array of the command line.
+     */
+    public static String[] withFlag(String[] args) {
+        String value = System.getenv(ENV);
+        if (value == null || value.isEmpty() || value.equals("0")
+                || (args.length > 0 && args[0].equals(FLAG))) {
+            return args;
+        }
+        String[] flagged = new String[args.length + 1];
+        flagged[0] = FLAG;
+        System.arraycopy(args, 0, flagged, 1, args.length);
+        return flagged;
+    }
+
+    /**
+     * Start a command, tracing it if its command line starts with the trace flag.
+     * @param args String array of the command line.
+     * @return String array of the command line without the flag.
+     */
+    public static String[] begin(String[] args) {
+        enabled = args.length > 0 && args[0].equals(FLAG);
+        if (!enabled) {
+            return args;
+        }
+        args = Arrays.copyOfRange(args, 1, args.length);
+        command = args.length > 0 ? args[0] : "";
+        for (LongAdder counter : new LongAdder[]{OBJECTS_READ, OBJECTS_WRITTEN, BYTES_HASHED,
+                FILES_STATTED, INDEX_LOADS}) {
+            counter.reset();
+        }
+        synchronized (PHASES) {
+            PHASES.clear();
+        }
+        started = System.nanoTime();
+        return args;
+    }
+
+    /** End the current command, and print its summary if it was traced. Runs once. */
+    public static void end() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        StringBuilder json = new StringBuilder("{\"command\":").append(quote(command))
+                .append(",\"ms\":").append(millis(System.nanoTime() - started))
+                .append(",\"phases\":{");
+        synchronized (PHASES) {
+            String separator = "";
+            for (Map.Entry<String, Long> entry : PHASES.entrySet()) {
+                json.append(separator).append(quote(entry.getKey())).append(':')
+                        .append(millis(entry.getValue()));
+                separator = ",";
+            }
+        }
+        json.append("},\"objects_read\":").append(OBJECTS_READ.sum())
+                .append(",\"objects_written\":").append(OBJECTS_WRITTEN.sum())
+                .append(",\"bytes_hashed\":").append(BYTES_HASHED.sum())
+                .append(",\"files_statted\":").append(FILES_STATTED.sum())
+                .append(",\"index_loads\":").append(INDEX_LOADS.sum()).append('}');
+        System.out.flush();
+        System.err.println(json);
+        System.err.flush();
+    }
+
+    /** @return long of the time in nanoseconds a phase starts at, or 0 when not tracing. */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Add the time since START to a phase.
+     * @param name String of the name of the phase.
+     * @param start long of the time returned by start when the phase began.
+     */
+    public static void phase(String name, long start) {
+        if (enabled) {
+            long nanos = System.nanoTime() - start;
+            synchronized (PHASES) {
+                PHASES.merge(name, nanos, Long::sum);
+            }
+        }
+    }
+
+    /** Count an object opened for reading. */
+    public static void objectRead() {
+        if (enabled) {
+            OBJECTS_READ.increment();
+        }
+    }
+
+    /** Count an object written into the object store. */
+    public static void objectWritten() {
+        if (enabled) {
+            OBJECTS_WRITTEN.increment();
+        }
+    }
+
+    /** Count bytes fed to SHA-1. */
+    public static void hashed(long bytes) {
+        if (enabled) {
+            BYTES_HASHED.add(bytes);
+        }
+    }
+
+    /** Count a file whose stat data was read. */
+    public static void statted() {
+        if (enabled) {
+            FILES_STATTED.increment();
+        }
+    }
+
+    /** Count a read of the index. */
+    public static void indexLoaded() {
+        if (enabled) {
+            INDEX_LOADS.increment();
+        }
+    }
+
+    /** private HELP method. */
+
+    /** @return String of milliseconds in NANOS, with three decimals. */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /** @return String of TEXT as a JSON string. */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,277 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static gitlet.Utils.*;
+import static gitlet.HelpMethod.*;
+
+/**Represents a tree object, the contents of one directory.
+ * @author ASmellyCat
+ * a tree contains:
+ * 1. sha1 id of "tree [length]\0" followed by its encoded entries
+ * 2. entries of file name and blob SHA-1 ID, sorted by name
+ * 3. entries of subdirectory name and tree SHA-1 ID, sorted by name
+ *
+ * A tree is stored as lines of "blob [SHA-1 ID] [name]" and "tree [SHA-1 ID] [name]",
+ * sorted by name. A subdirectory is named by the ID of its own tree, so two
+ * trees with the same ID hold the same files all the way down, and a walk
+ * over two versions never reads a subtree they share.
+ */
+public class Tree {
+    /** Map of file name as key and blob SHA-1 ID as value. */
+    private final TreeMap<String, String> blobs;
+    /** Map of subdirectory name as key and tree SHA-1 ID as value. */
+    private final TreeMap<String, String> trees;
+    /** the SHA-1 ID of this tree. */
+    private final String treeID;
+
+    /**
+     * Creates a tree object with the specified entries.
+     * @param b Map of file name as key and blob SHA-1 ID as value.
+     * @param t Map of subdirectory name as key and tree SHA-1 ID as value.
+     */
+    public Tree(Map<String, String> b, Map<String, String> t) {
+        blobs = new TreeMap<>(b);
+        trees = new TreeMap<>(t);
+        byte[] bytes = encode();
+        treeID = sha1("tree " + bytes.length + "\0", bytes);
+    }
+
+    /**
+     * Write the trees of a set of files, one per directory, from the deepest up.
+     * A directory whose files did not change hashes to the ID of a tree that is
+     * already stored, so it is not written again.
+     * @param files Map of path relative to the directory as key and blob SHA-1 ID as value.
+     * @param objectDir File of object directory.
+     * @return String of SHA-1 ID of the top tree.
+     */
+    public static String write(Map<String, String> files, File objectDir) {
+        Map<String, Tree> built = new HashMap<>();
+        String id = build(files, built);
+        for (Tree tree : built.values()) {
+            tree.save(objectDir);
+        }
+        return id;
+    }
+
+    /**
+     * read a stored tree.
+     * @param id String of full SHA-1 ID.
+     * @param objectDir File of object directory.
+     */
+    public static Tree read(String id, File objectDir) {
+        Map<String, String> b = new TreeMap<>();
+        Map<String, String> t = new TreeMap<>();
+        try (InputStream in = openObject(id, objectDir)) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            for (String line : text.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(" ", 3);
+                (fields[0].equals("tree") ? t : b).put(fields[2], fields[1]);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read tree %s: %s", id, excp.getMessage());
+        }
+        return new Tree(b, t);
+    }
+
+    /**
+     * get every file under a stored tree.
+     * @param id String of SHA-1 ID of the tree.
+     * @param objectDir File of object directory.
+     * @return Map of path relative to the tree as key and blob SHA-1 ID as value.
+     */
+    public static Map<String, String> flatten(String id, File objectDir) {
+        Map<String, String> files = new HashMap<>();
+        flatten("", id, objectDir, files);
+        return files;
+    }
+
+    /**
+     * get the files that differ between a set of files and a stored tree.
+     * The trees of the set are hashed in memory, and a stored subtree with the
+     * same ID as a directory of the set is never read.
+     * @param files Map of relative path as key and blob SHA-1 ID as value.
+     * @param toID String of SHA-1 ID of the stored tree.
+     * @param objectDir File of object directory.
+     * @return Map of relative path as key and blob SHA-1 ID in the stored tree as value,
+     *         or null as value if the file is not in the stored tree.
+     */
+    public static Map<String, String> diff(Map<String, String> files, String toID,
+                                           File objectDir) {
+        Map<String, Tree> built = new HashMap<>();
+        Map<String, String> changes = new TreeMap<>();
+        diff("", build(files, built), toID, objectDir, built, changes);
+        return changes;
+    }
+
+    /**
+     * get the files that differ between two stored trees.
+     * Only the subtrees whose IDs differ are read.
+     * @param fromID String of SHA-1 ID of the tree to diff from.
+     * @param toID String of SHA-1 ID of the tree to diff to.
+     * @param objectDir File of object directory.
+     * @return Map of relative path as key and blob SHA-1 ID in tree TOID as value,
+     *         or null as value if the file is not in tree TOID.
+     */
+    public static Map<String, String> diff(String fromID, String toID, File objectDir) {
+        Map<String, String> changes = new TreeMap<>();
+        diff("", fromID, toID, objectDir, Map.of(), changes);
+        return changes;
+    }
+
+    /**
+     * Collect the IDs of a tree, and of the subtrees and blobs under it, that
+     * are not at the same path in any of some base trees.
+     * A subtree found in a base is skipped without being read.
+     * @param id String of SHA-1 ID of the tree.
+     * @param baseIDs List of SHA-1 IDs of base trees.
+     * @param objectDir File of object directory.
+     * @param objectIDs Collection that the new SHA-1 IDs are added to.
+     */
+    public static void newObjects(String id, List<String> baseIDs, File objectDir,
+                                  Collection<String> objectIDs) {
+        if (baseIDs.contains(id)) {
+            return;
+        }
+        objectIDs.add(id);
+        Tree tree = read(id, objectDir);
+        List<Tree> bases = baseIDs.stream().map(baseID -> read(baseID, objectDir))
+                .collect(Collectors.toList());
+        for (Map.Entry<String, String> entry : tree.blobs.entrySet()) {
+            if (bases.stream().noneMatch(base ->
+                    entry.getValue().equals(base.blobs.get(entry.getKey())))) {
+                objectIDs.add(entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : tree.trees.entrySet()) {
+            List<String> subtreeIDs = bases.stream().map(base -> base.trees.get(entry.getKey()))
+                    .filter(Objects::nonNull).collect(Collectors.toList());
+            newObjects(entry.getValue(), subtreeIDs, objectDir, objectIDs);
+        }
+    }
+
+    /** @return String of SHA-1 ID of this tree. */
+    public String shaID() {
+        return treeID;
+    }
+
+    /** @return Map of file name as key and blob SHA-1 ID as value. */
+    public Map<String, String> getBlobs() {
+        return blobs;
+    }
+
+    /** @return Map of subdirectory name as key and tree SHA-1 ID as value. */
+    public Map<String, String> getTrees() {
+        return trees;
+    }
+
+    /** save this tree into an object directory, unless it is already there. */
+    public void save(File objectDir) {
+        File file = objectFile(treeID, objectDir);
+        if (file.exists() || WriteBatch.isPending(file) || Pack.of(objectDir).contains(treeID)) {
+            return;
+        }
+        WriteBatch.write(file, encode());
+    }
+
+    /** private HELP method. */
+
+    /**
+     * Hash the trees of a set of files without storing them.
+     * @param files Map of path relative to the directory as key and blob SHA-1 ID as value.
+     * @param built Map that every tree is put into, with its SHA-1 ID as key.
+     * @return String of SHA-1 ID of the top tree.
+     */
+    private static String build(Map<String, String> files, Map<String, Tree> built) {
+        Map<String, String> b = new TreeMap<>();
+        Map<String, Map<String, String>> directories = new TreeMap<>();
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            String name = entry.getKey();
+            int slash = name.indexOf('/');
+            if (slash < 0) {
+                b.put(name, entry.getValue());
+            } else {
+                directories.computeIfAbsent(name.substring(0, slash), k -> new HashMap<>())
+                        .put(name.substring(slash + 1), entry.getValue());
+            }
+        }
+        Map<String, String> t = new TreeMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : directories.entrySet()) {
+            t.put(entry.getKey(), build(entry.getValue(), built));
+        }
+        Tree tree = new Tree(b, t);
+        built.put(tree.shaID(), tree);
+        return tree.shaID();
+    }
+
+    /** Put every file under tree ID into FILES, with PREFIX before its path. */
+    private static void flatten(String prefix, String id, File objectDir,
+                                Map<String, String> files) {
+        Tree tree = read(id, objectDir);
+        for (Map.Entry<String, String> entry : tree.blobs.entrySet()) {
+            files.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.trees.entrySet()) {
+            flatten(prefix + entry.getKey() + "/", entry.getValue(), objectDir, files);
+        }
+    }
+
+    /**
+     * Put the files that differ between trees FROMID and TOID into CHANGES,
+     * with PREFIX before their paths. Either ID may be null for a missing directory.
+     * Trees from FROMID in BUILT are taken from there instead of the object directory.
+     */
+    private static void diff(String prefix, String fromID, String toID, File objectDir,
+                             Map<String, Tree> built, Map<String, String> changes) {
+        if (Objects.equals(fromID, toID)) {
+            return;
+        }
+        Tree from = fromID == null ? new Tree(Map.of(), Map.of())
+                : built.containsKey(fromID) ? built.get(fromID) : read(fromID, objectDir);
+        Tree to = toID == null ? new Tree(Map.of(), Map.of()) : read(toID, objectDir);
+        TreeSet<String> names = new TreeSet<>(from.blobs.keySet());
+        names.addAll(to.blobs.keySet());
+        for (String name : names) {
+            String toBlobID = to.blobs.get(name);
+            if (!Objects.equals(from.blobs.get(name), toBlobID)) {
+                changes.put(prefix + name, toBlobID);
+            }
+        }
+        names = new TreeSet<>(from.trees.keySet());
+        names.addAll(to.trees.keySet());
+        for (String name : names) {
+            diff(prefix + name + "/", from.trees.get(name), to.trees.get(name), objectDir,
+                    built, changes);
+        }
+    }
+
+    /** @return byte array of the canonical form of entries. */
+    private byte[] encode() {
+        TreeMap<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            lines.put(entry.getKey(), "blob " + entry.getValue() + ' ' + entry.getKey());
+        }
+        for (Map.Entry<String, String> entry : trees.entrySet()) {
+            lines.put(entry.getKey(), "tree " + entry.getValue() + ' ' + entry.getKey());
+        }
+        StringBuilder text = new StringBuilder();
+        for (String line : lines.values()) {
+            text.append(line).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
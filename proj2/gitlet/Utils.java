@@ -9,13 +9,15 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -33,27 +35,75 @@ class Utils {
 
     /* SHA-1 HASH VALUES. */
 
+    /** Files at least this large are hashed through a memory map. */
+    static final long MAP_THRESHOLD = 1 << 20;
+    /** Largest region of a file mapped at once. */
+    private static final long MAP_REGION = 1 << 30;
+    /** A SHA-1 digest for each thread, reset by every use. */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+        ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        });
+    /** A direct buffer for each thread, for files below MAP_THRESHOLD. */
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 16));
+    /** Hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+                Trace.hashed(((byte[]) val).length);
+            } else if (val instanceof String) {
+                byte[] bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+                md.update(bytes);
+                Trace.hashed(bytes.length);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        }
+        return hex(md.digest());
+    }
+
+    /** Returns the SHA-1 hash of PREFIX followed by the contents of FILE.
+     *  The contents are fed to the digest straight from a memory map, or
+     *  for a small file from a direct buffer, so they are never copied onto
+     *  the heap.  Throws IllegalArgumentException in case of problems. */
+    static String sha1(String prefix, File file) {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        md.update(prefix.getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_REGION) {
+                    md.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_REGION, size - position)));
+                }
+                Trace.hashed(size);
+            } else {
+                ByteBuffer buffer = HASH_BUFFER.get();
+                buffer.clear();
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    Trace.hashed(buffer.remaining());
+                    md.update(buffer);
+                    buffer.clear();
+                }
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            return hex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
@@ -63,6 +113,16 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns DIGEST as a lower-case hexadecimal numeral. */
+    private static String hex(byte[] digest) {
+        char[] result = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i += 1) {
+            result[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
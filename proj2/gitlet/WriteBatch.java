@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static gitlet.Utils.*;
+
+/** Represents the object writes of one command, made durable together.
+ * @author ASmellyCat
+ * New objects are written to temp files beside their final names and only
+ * recorded here. publish then
+ * 1. fsyncs every pending temp file at once on the common pool,
+ *    so the file system can flush them in one journal commit,
+ * 2. renames each temp file to its object name,
+ * 3. fsyncs each directory that got a new name, once.
+ *
+ * Append-only files (the commit graph, its messages and reflogs) are only
+ * recorded as appended, and fsynced in the same round as the temp files.
+ *
+ * The index and refs are written by publishFile, which publishes pending
+ * objects first, then replaces the file by temp file, fsync, rename and
+ * directory fsync. After a crash, the index and every ref either keep their
+ * old contents or name objects, graph records and reflog lines that are
+ * already on disk, and a commit pays for one round of fsyncs instead of one
+ * per object.
+ */
+public class WriteBatch {
+    /** Map of pending object files as key and their written temp files as value. */
+    private static final Map<File, File> PENDING = new ConcurrentHashMap<>();
+    /** Set of append-only files written since the last publish. */
+    private static final Set<File> APPENDED = ConcurrentHashMap.newKeySet();
+    /** Counter that makes temp file names unique within this process. */
+    private static final AtomicLong TEMP_COUNT = new AtomicLong();
+
+    /**
+     * get a new temp file beside a target file, to be written and then added.
+     * Its name is hidden, so one left by a crash is never listed as a branch,
+     * and is not an object name.
+     * @param target File that the temp file will replace.
+     * @return File of the temp file, which does not exist yet.
+     */
+    public static File tempFor(File target) {
+        target.getParentFile().mkdirs();
+        return join(target.getParentFile(), "." + target.getName() + "."
+                + ProcessHandle.current().pid() + "." + TEMP_COUNT.incrementAndGet() + ".tmp");
+    }
+
+    /**
+     * Record a written temp file, to be renamed to its target when the batch is published.
+     * If the target is already pending, the temp file is dropped.
+     */
+    public static void add(File temp, File target) {
+        if (PENDING.putIfAbsent(target, temp) != null) {
+            temp.delete();
+        } else {
+            Trace.objectWritten();
+        }
+    }
+
+    /** Write contents to a temp file beside TARGET and record it. */
+    public static void write(File target, byte[] contents) {
+        File temp = tempFor(target);
+        writeContents(temp, (Object) contents);
+        add(temp, target);
+    }
+
+    /** Record an append-only file that was written, to be fsynced by the next publish. */
+    public static void appended(File file) {
+        APPENDED.add(file);
+    }
+
+    /** @return boolean of whether an object file is waiting to be published. */
+    public static boolean isPending(File target) {
+        return PENDING.containsKey(target);
+    }
+
+    /** Make all pending object files and appended files durable, then name the objects. */
+    public static void publish() {
+        if (PENDING.isEmpty() && APPENDED.isEmpty()) {
+            return;
+        }
+        long start = Trace.start();
+        List<Map.Entry<File, File>> entries = new ArrayList<>(PENDING.entrySet());
+        List<File> appended = new ArrayList<>(APPENDED);
+        APPENDED.removeAll(appended);
+        List<File> toForce = new ArrayList<>(appended);
+        for (Map.Entry<File, File> entry : entries) {
+            toForce.add(entry.getValue());
+        }
+        toForce.parallelStream().forEach(WriteBatch::force);
+        Set<File> directories = new HashSet<>();
+        for (File file : appended) {
+            directories.add(file.getParentFile());
+        }
+        for (Map.Entry<File, File> entry : entries) {
+            rename(entry.getValue(), entry.getKey());
+            directories.add(entry.getKey().getParentFile());
+        }
+        directories.parallelStream().forEach(WriteBatch::forceDirectory);
+        for (Map.Entry<File, File> entry : entries) {
+            PENDING.remove(entry.getKey(), entry.getValue());
+        }
+        Trace.phase("publish", start);
+    }
+
+    /** Delete the temp files of pending objects left by a command that stopped early. */
+    public static void discard() {
+        APPENDED.clear();
+        for (Map.Entry<File, File> entry : PENDING.entrySet()) {
+            entry.getValue().delete();
+            PENDING.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Publish pending objects, then replace a file durably in one rename.
+     * Used for the index and refs, which must never name a missing object.
+     * @param file File to replace.
+     * @param contents byte array of its new contents.
+     */
+    public static void publishFile(File file, byte[] contents) {
+        publish();
+        File temp = tempFor(file);
+        writeContents(temp, (Object) contents);
+        force(temp);
+        rename(temp, file);
+        forceDirectory(file.getParentFile());
+    }
+
+    /** Publish pending objects, then replace a ref or other text file durably. */
+    public static void publishFile(File file, String contents) {
+        publishFile(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** private HELP method. */
+
+    /** Flush the contents of FILE to disk. */
+    private static void force(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw error("Cannot sync %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+
+    /** Flush the names in DIRECTORY to disk, where the platform allows it. */
+    private static void forceDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            return; // directories cannot be opened on every platform.
+        }
+    }
+
+    /** Rename TEMP to TARGET, replacing it in one step. */
+    private static void rename(File temp, File target) {
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("Cannot write %s: %s", target.getName(), excp.getMessage());
+        }
+    }
+}